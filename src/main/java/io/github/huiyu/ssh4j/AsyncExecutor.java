@@ -0,0 +1,208 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.JSchException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands of one client without a thread per command.
+ * <p>
+ * A few I/O threads open exec channels and complete futures; while a command
+ * runs its output is pushed by the transport thread and no thread waits for
+ * it. Channels in flight are bounded, further commands queue in submission
+ * order. Like {@link SftpChannelPool}, the bound is lowered to the number of
+ * channels actually open when the server refuses a new one.
+ */
+class AsyncExecutor {
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+    private final SshClient client;
+    private final ThreadPoolExecutor io;
+
+    private final Deque<CommandFuture<?>> waiting = new ArrayDeque<>();
+    private int maxInFlight;
+    private int inFlight;
+    private boolean shutdown;
+
+    AsyncExecutor(SshClient client, String name, int threads, int maxInFlight) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive.");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max concurrent commands must be positive.");
+        }
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+
+        final String prefix = "ssh4j-async-" + name + "-";
+        this.io = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        // an idle client holds no threads
+        this.io.allowCoreThreadTimeOut(true);
+    }
+
+    <V> CommandFuture<V> submit(CommandFuture<V> future) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new SshException("Client is closed.");
+            }
+            if (inFlight >= maxInFlight) {
+                waiting.addLast(future);
+                return future;
+            }
+            inFlight++;
+        }
+        dispatch(future);
+        return future;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    /**
+     * Fail the queued commands and stop accepting new ones. Commands in flight
+     * complete when their channels close with the session.
+     */
+    void shutdown() {
+        List<CommandFuture<?>> dropped;
+        synchronized (this) {
+            shutdown = true;
+            dropped = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        for (CommandFuture<?> f : dropped) {
+            f.failed(new SshException("Client is closed."));
+        }
+        io.shutdown();
+    }
+
+    private void dispatch(final CommandFuture<?> future) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                start(future);
+            }
+        });
+    }
+
+    private void start(final CommandFuture<?> future) {
+        if (future.isCancelled()) {
+            next();
+            return;
+        }
+
+        final RunningCommand cmd;
+        try {
+            cmd = client.startCommand(future.command, future.stdout, future.stderr, future.latency);
+        } catch (JSchException e) {
+            if (!requeue(future)) {
+                future.failed(new SshException(e));
+                next();
+            }
+            return;
+        } catch (Exception e) {
+            future.failed(e instanceof SshException ? e : new SshException(e));
+            next();
+            return;
+        }
+
+        future.started(cmd);
+        cmd.err.whenClosed(new Runnable() {
+            @Override
+            public void run() {
+                // called by the transport thread, don't run listeners on it
+                AsyncExecutor.this.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(future, cmd);
+                    }
+                });
+            }
+        });
+    }
+
+    private void complete(CommandFuture<?> future, RunningCommand cmd) {
+        try {
+            int exitCode = cmd.finish();
+            client.getCommandStats().record(cmd.latency);
+            future.completed(exitCode);
+        } catch (Throwable t) {
+            future.failed(t instanceof SshException ? t : new SshException(t));
+        } finally {
+            next();
+        }
+    }
+
+    /**
+     * Put back a command whose channel was refused while others are open.
+     *
+     * @return false if no other channel is open, i.e. the failure is real
+     */
+    private boolean requeue(CommandFuture<?> future) {
+        synchronized (this) {
+            if (inFlight <= 1 || !client.isOpen()) {
+                return false;
+            }
+            // server refused another channel, settle for what we have
+            inFlight--;
+            maxInFlight = inFlight;
+            waiting.addFirst(future);
+            return true;
+        }
+    }
+
+    /**
+     * Hand the slot of a finished command to the next queued one.
+     */
+    private void next() {
+        CommandFuture<?> future;
+        synchronized (this) {
+            do {
+                future = inFlight <= maxInFlight ? waiting.pollFirst() : null;
+            } while (future != null && future.isCancelled());
+            if (future == null) {
+                inFlight--;
+                return;
+            }
+        }
+        dispatch(future);
+    }
+
+    /**
+     * Run a short task on the I/O threads, e.g. to get off the transport
+     * thread.
+     */
+    void execute(Runnable task) {
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down, finish the remaining work on the calling thread
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Collects output in bounded memory: the first bytes up to a head limit and
+ * the last bytes up to a tail limit, in a ring buffer. Bytes in between are
+ * counted but not kept.
+ */
+class CaptureOutputStream extends OutputStream {
+
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final int INITIAL_HEAD_SIZE = 256;
+    private static final String DROPPED_MARKER = "\n[... %d bytes dropped ...]\n";
+
+    private final int headLimit;
+    private final int tailLimit;
+
+    private byte[] head = new byte[0];
+    private int headCount;
+
+    private byte[] tail;
+    // next write position in the ring, and how much of it is filled
+    private int tailPos;
+    private int tailCount;
+
+    private long dropped;
+
+    CaptureOutputStream(int headLimit, int tailLimit) {
+        if (headLimit < 0 || tailLimit < 0) {
+            throw new IllegalArgumentException("Capture limits can't be negative.");
+        }
+        this.headLimit = headLimit;
+        this.tailLimit = tailLimit;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        int n = Math.min(len, headLimit - headCount);
+        if (n > 0) {
+            ensureHeadCapacity(headCount + n);
+            System.arraycopy(b, off, head, headCount, n);
+            headCount += n;
+            off += n;
+            len -= n;
+        }
+        if (len > 0) {
+            writeTail(b, off, len);
+        }
+    }
+
+    private void ensureHeadCapacity(int capacity) {
+        if (capacity > head.length) {
+            int size = Math.min(Math.max(head.length, INITIAL_HEAD_SIZE), headLimit);
+            while (size < capacity) {
+                size = size > headLimit / 2 ? headLimit : size * 2;
+            }
+            head = Arrays.copyOf(head, size);
+        }
+    }
+
+    private void writeTail(byte[] b, int off, int len) {
+        if (tailLimit == 0) {
+            dropped += len;
+            return;
+        }
+        if (tail == null) {
+            tail = new byte[tailLimit];
+        }
+        if (len >= tailLimit) {
+            // the whole ring is replaced
+            dropped += tailCount + len - tailLimit;
+            System.arraycopy(b, off + len - tailLimit, tail, 0, tailLimit);
+            tailPos = 0;
+            tailCount = tailLimit;
+            return;
+        }
+        dropped += Math.max(0, tailCount + len - tailLimit);
+        int first = Math.min(len, tailLimit - tailPos);
+        System.arraycopy(b, off, tail, tailPos, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailPos = (tailPos + len) % tailLimit;
+        tailCount = Math.min(tailCount + len, tailLimit);
+    }
+
+    /**
+     * Bytes written but not kept.
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Bytes kept.
+     */
+    synchronized int size() {
+        return headCount + tailCount;
+    }
+
+    /**
+     * The head followed by the tail.
+     */
+    synchronized byte[] toByteArray() {
+        byte[] bytes = Arrays.copyOf(head, headCount + tailCount);
+        if (tailCount > 0) {
+            // the oldest byte is at the write position once the ring is full
+            int start = tailCount < tailLimit ? 0 : tailPos;
+            int first = tailCount - start;
+            System.arraycopy(tail, start, bytes, headCount, first);
+            System.arraycopy(tail, 0, bytes, headCount + first, start);
+        }
+        return bytes;
+    }
+
+    /**
+     * The head and the tail as text. If bytes were dropped in between, a
+     * marker line saying how many separates the two, each decoded on its own,
+     * so that neither a line nor a character is spliced from both.
+     */
+    @Override
+    public synchronized String toString() {
+        byte[] bytes = toByteArray();
+        Charset charset = Charset.defaultCharset();
+        if (dropped == 0) {
+            return new String(bytes, charset);
+        }
+        return new String(bytes, 0, headCount, charset)
+                + String.format(DROPPED_MARKER, dropped)
+                + new String(bytes, headCount, tailCount, charset);
+    }
+}
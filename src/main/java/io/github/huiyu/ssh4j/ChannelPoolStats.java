@@ -0,0 +1,78 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Snapshot of the SFTP channels of a {@link SshClient}.
+ */
+public class ChannelPoolStats {
+
+    private final int maxChannels;
+    private final int openChannels;
+    private final int busyChannels;
+    private final int peakBusyChannels;
+    private final long acquisitions;
+    private final long waits;
+    private final long waitTimeNanos;
+
+    ChannelPoolStats(int maxChannels, int openChannels, int busyChannels, int peakBusyChannels,
+                     long acquisitions, long waits, long waitTimeNanos) {
+        this.maxChannels = maxChannels;
+        this.openChannels = openChannels;
+        this.busyChannels = busyChannels;
+        this.peakBusyChannels = peakBusyChannels;
+        this.acquisitions = acquisitions;
+        this.waits = waits;
+        this.waitTimeNanos = waitTimeNanos;
+    }
+
+    /**
+     * Current channel limit, lowered if the server refused channels.
+     */
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    public int getOpenChannels() {
+        return openChannels;
+    }
+
+    public int getBusyChannels() {
+        return busyChannels;
+    }
+
+    public int getPeakBusyChannels() {
+        return peakBusyChannels;
+    }
+
+    /**
+     * Busy channels relative to the channel limit, between 0 and 1.
+     */
+    public double getUtilization() {
+        return maxChannels == 0 ? 0 : (double) busyChannels / maxChannels;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * Number of acquisitions that had to wait for a channel.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getWaitTimeNanos() {
+        return waitTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelPoolStats{maxChannels=" + maxChannels
+                + ", openChannels=" + openChannels
+                + ", busyChannels=" + busyChannels
+                + ", peakBusyChannels=" + peakBusyChannels
+                + ", acquisitions=" + acquisitions
+                + ", waits=" + waits
+                + ", waitTimeNanos=" + waitTimeNanos + "}";
+    }
+}
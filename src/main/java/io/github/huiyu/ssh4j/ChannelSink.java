@@ -0,0 +1,121 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One output stream of an exec channel, written by the session's transport
+ * thread as data packets arrive. Standard output and error are delivered
+ * independently, so neither can hold up the other however the command
+ * interleaves them; in-flight data is bounded by the channel window.
+ * <p>
+ * JSch closes the standard output sink at the remote EOF and the error sink
+ * when the channel is closed, which is the completion signal of a command.
+ */
+class ChannelSink extends OutputStream {
+
+    private final OutputStream target;
+    private final CommandLatency latency;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private volatile IOException failure;
+    private Runnable closeListener;
+
+    /**
+     * @param target     where the data goes, null to discard it
+     * @param bufferSize bytes collected before writing to the target, 0 to pass
+     *                   every packet through as it arrives
+     */
+    ChannelSink(OutputStream target, CommandLatency latency, int bufferSize) {
+        if (target != null && bufferSize > 0) {
+            target = new BufferedOutputStream(target, bufferSize);
+        }
+        this.target = target;
+        this.latency = latency;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        latency.firstByte();
+        if (target == null) {
+            return;
+        }
+        try {
+            target.write(b, off, len);
+        } catch (IOException e) {
+            // JSch drops the channel on a failing write, remember why
+            failure = e;
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() {
+        // JSch flushes after every packet, the target is flushed on close
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (target != null) {
+                target.flush();
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            Runnable listener;
+            synchronized (this) {
+                closed.countDown();
+                listener = closeListener;
+            }
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Run the listener once the sink is closed: on the closing thread, usually
+     * the transport thread, or right away if it is closed already.
+     */
+    void whenClosed(Runnable listener) {
+        synchronized (this) {
+            if (!isClosed()) {
+                closeListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    void await() throws InterruptedException {
+        closed.await();
+    }
+
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    /**
+     * Rethrow the exception the target threw, if any.
+     */
+    void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
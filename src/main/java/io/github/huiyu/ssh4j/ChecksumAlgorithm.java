@@ -0,0 +1,49 @@
+package io.github.huiyu.ssh4j;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest used to verify a transfer, computed locally while the bytes stream
+ * and remotely by the matching coreutils command.
+ */
+public enum ChecksumAlgorithm {
+
+    MD5("MD5", "md5sum", 32),
+    SHA1("SHA-1", "sha1sum", 40),
+    SHA256("SHA-256", "sha256sum", 64),
+    SHA512("SHA-512", "sha512sum", 128);
+
+    private final String javaName;
+    private final String command;
+    private final int hexLength;
+
+    ChecksumAlgorithm(String javaName, String command, int hexLength) {
+        this.javaName = javaName;
+        this.command = command;
+        this.hexLength = hexLength;
+    }
+
+    /**
+     * The remote command printing digests of the files given as arguments.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(javaName);
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has these
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Length of the digest in hex digits.
+     */
+    int getHexLength() {
+        return hexLength;
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Local and remote file digests, the remote ones computed by coreutils
+ * commands on the host.
+ */
+class Checksums {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final Pattern HEX = Pattern.compile("[0-9a-fA-F]+");
+
+    private Checksums() {
+    }
+
+    /**
+     * Digest remote files with one command.
+     *
+     * @return the digests by path; files that couldn't be read, or all of them
+     * if the host lacks the command, are missing
+     */
+    static Map<String, String> remote(SshClient client, List<String> paths, ChecksumAlgorithm algorithm) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.execute(command(paths, algorithm), out, null);
+        return parse(out.toString(), algorithm);
+    }
+
+    /**
+     * Start digesting a remote file without waiting for it, e.g. while the
+     * file is being downloaded.
+     */
+    static ListenableFuture<ExecuteResult> startRemote(SshClient client, String path, ChecksumAlgorithm algorithm) {
+        return client.executeFullyAsync(command(Collections.singletonList(path), algorithm));
+    }
+
+    /**
+     * Start digesting {@code length} bytes of a remote file from
+     * {@code offset} on, e.g. one range of a segmented copy.
+     *
+     * @see #check(ListenableFuture, String, String, String, ChecksumAlgorithm)
+     */
+    static ListenableFuture<ExecuteResult> startRemote(SshClient client, String path, long offset, long length,
+                                                       ChecksumAlgorithm algorithm) {
+        return client.executeFullyAsync(command(path, offset, length, algorithm));
+    }
+
+    /**
+     * Wait for a remote digest and compare it with the local one.
+     *
+     * @throws SshException if the digests differ or the remote one failed
+     */
+    static void check(ListenableFuture<ExecuteResult> remote, String path, String localDigest,
+                      ChecksumAlgorithm algorithm) {
+        check(remote, path, path, localDigest, algorithm);
+    }
+
+    /**
+     * @param name what the command printed the digest for, "-" for its
+     *             standard input
+     */
+    static void check(ListenableFuture<ExecuteResult> remote, String path, String name, String localDigest,
+                      ChecksumAlgorithm algorithm) {
+        ExecuteResult result;
+        try {
+            result = remote.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SshException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof SshException ? (SshException) cause : new SshException(cause);
+        }
+        String remoteDigest = parse(result.out, algorithm).get(name);
+        if (remoteDigest == null) {
+            throw new SshException("Can't verify " + path + " with " + algorithm.getCommand()
+                    + ": " + result.err.trim());
+        }
+        if (!remoteDigest.equals(localDigest)) {
+            throw new SshException(algorithm + " mismatch for " + path + ": local " + localDigest
+                    + ", remote " + remoteDigest);
+        }
+    }
+
+    /**
+     * Compare a whole local file with a remote one, digesting both at once.
+     */
+    static void verify(SshClient client, File local, String remote, ChecksumAlgorithm algorithm) {
+        ListenableFuture<ExecuteResult> remoteDigest = startRemote(client, remote, algorithm);
+        String localDigest;
+        try {
+            localDigest = digest(local, algorithm);
+        } catch (IOException e) {
+            remoteDigest.cancel(true);
+            throw new SshException(e);
+        }
+        check(remoteDigest, remote, localDigest, algorithm);
+    }
+
+    static String command(List<String> paths, ChecksumAlgorithm algorithm) {
+        StringBuilder command = new StringBuilder(algorithm.getCommand()).append(" --");
+        for (String path : paths) {
+            command.append(' ').append(SourcedEnvironment.quote(path));
+        }
+        return command.toString();
+    }
+
+    static String command(String path, long offset, long length, ChecksumAlgorithm algorithm) {
+        // tail seeks to the offset of a regular file, head stops reading at the end of the range
+        return "tail -c +" + (offset + 1) + " -- " + SourcedEnvironment.quote(path)
+                + " | head -c " + length + " | " + algorithm.getCommand();
+    }
+
+    /**
+     * Parse the output of a digest command. Lines of names the tool had to
+     * escape (starting with a backslash) and anything else that isn't a
+     * digest line are left out.
+     */
+    static Map<String, String> parse(String output, ChecksumAlgorithm algorithm) {
+        Map<String, String> digests = new HashMap<>();
+        for (String line : output.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space != algorithm.getHexLength() || line.length() < space + 2
+                    || !HEX.matcher(line.substring(0, space)).matches()) {
+                continue;
+            }
+            // "<digest>  <name>" in text mode, "<digest> *<name>" in binary mode
+            digests.put(line.substring(space + 2), line.substring(0, space).toLowerCase());
+        }
+        return digests;
+    }
+
+    static String digest(File file, ChecksumAlgorithm algorithm) throws IOException {
+        MessageDigest md = algorithm.newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        }
+        return hex(md);
+    }
+
+    /**
+     * Digest the first {@code length} bytes of a local file.
+     */
+    static String digest(File file, long length, ChecksumAlgorithm algorithm) throws IOException {
+        MessageDigest md = algorithm.newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    throw new IOException("File is shorter than " + length + " bytes: " + file);
+                }
+                md.update(buf, 0, n);
+                remaining -= n;
+            }
+        }
+        return hex(md);
+    }
+
+    static String hex(MessageDigest md) {
+        return BaseEncoding.base16().lowerCase().encode(md.digest());
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+import java.io.OutputStream;
+
+/**
+ * Result of a command run by {@link AsyncExecutor}. Cancelling it closes the
+ * exec channel, or drops the command if it hasn't been started yet.
+ */
+abstract class CommandFuture<V> extends AbstractFuture<V> {
+
+    final String command;
+    final OutputStream stdout;
+    final OutputStream stderr;
+    final CommandLatency latency = new CommandLatency();
+
+    private RunningCommand running;
+
+    CommandFuture(String command, OutputStream stdout, OutputStream stderr) {
+        this.command = command;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Build the value of the future once the command exited.
+     */
+    abstract V result(int exitCode);
+
+    void started(RunningCommand cmd) {
+        synchronized (this) {
+            if (!isCancelled()) {
+                running = cmd;
+                return;
+            }
+        }
+        cmd.cancel();
+    }
+
+    void completed(int exitCode) {
+        set(result(exitCode));
+    }
+
+    void failed(Throwable t) {
+        setException(t);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        RunningCommand cmd;
+        synchronized (this) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            cmd = running;
+        }
+        if (cmd != null) {
+            cmd.cancel();
+        }
+        return true;
+    }
+}
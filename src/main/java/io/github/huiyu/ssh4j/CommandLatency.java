@@ -0,0 +1,54 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Where the time of one command went, measured from the moment it was issued.
+ */
+public class CommandLatency {
+
+    private final long start = System.nanoTime();
+    private volatile long open = -1;
+    private volatile long firstByte = -1;
+    private volatile long exit = -1;
+
+    void opened() {
+        open = System.nanoTime() - start;
+    }
+
+    void firstByte() {
+        if (firstByte == -1) {
+            firstByte = System.nanoTime() - start;
+        }
+    }
+
+    void exited() {
+        exit = System.nanoTime() - start;
+    }
+
+    /**
+     * Time until the exec channel was open and the command sent.
+     */
+    public long getOpenNanos() {
+        return open;
+    }
+
+    /**
+     * Time until the first byte of output, or -1 if there was none.
+     */
+    public long getFirstByteNanos() {
+        return firstByte;
+    }
+
+    /**
+     * Time until the command completed.
+     */
+    public long getExitNanos() {
+        return exit;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandLatency{openNanos=" + open
+                + ", firstByteNanos=" + firstByte
+                + ", exitNanos=" + exit + "}";
+    }
+}
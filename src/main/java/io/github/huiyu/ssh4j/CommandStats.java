@@ -0,0 +1,79 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregated {@link CommandLatency} of the commands run by a {@link SshClient}.
+ */
+public class CommandStats {
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong openNanos = new AtomicLong();
+    private final AtomicLong firstBytes = new AtomicLong();
+    private final AtomicLong firstByteNanos = new AtomicLong();
+    private final AtomicLong exitNanos = new AtomicLong();
+    private final AtomicLong maxExitNanos = new AtomicLong();
+
+    private volatile CommandLatency last;
+
+    void record(CommandLatency latency) {
+        commands.incrementAndGet();
+        openNanos.addAndGet(latency.getOpenNanos());
+        if (latency.getFirstByteNanos() >= 0) {
+            firstBytes.incrementAndGet();
+            firstByteNanos.addAndGet(latency.getFirstByteNanos());
+        }
+        long exit = latency.getExitNanos();
+        exitNanos.addAndGet(exit);
+        long max;
+        while ((max = maxExitNanos.get()) < exit && !maxExitNanos.compareAndSet(max, exit)) {
+            // retry
+        }
+        last = latency;
+    }
+
+    /**
+     * Number of completed commands.
+     */
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getAverageOpenNanos() {
+        long n = commands.get();
+        return n == 0 ? 0 : openNanos.get() / n;
+    }
+
+    /**
+     * Average time to first byte of the commands that wrote any output.
+     */
+    public long getAverageFirstByteNanos() {
+        long n = firstBytes.get();
+        return n == 0 ? 0 : firstByteNanos.get() / n;
+    }
+
+    public long getAverageExitNanos() {
+        long n = commands.get();
+        return n == 0 ? 0 : exitNanos.get() / n;
+    }
+
+    public long getMaxExitNanos() {
+        return maxExitNanos.get();
+    }
+
+    /**
+     * Latency of the most recently completed command, or null.
+     */
+    public CommandLatency getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandStats{commands=" + getCommands()
+                + ", averageOpenNanos=" + getAverageOpenNanos()
+                + ", averageFirstByteNanos=" + getAverageFirstByteNanos()
+                + ", averageExitNanos=" + getAverageExitNanos()
+                + ", maxExitNanos=" + getMaxExitNanos() + "}";
+    }
+}
@@ -0,0 +1,50 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session health counters of a {@link SshClient}.
+ */
+public class ConnectionStats {
+
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong reconnects = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong keepAlives = new AtomicLong();
+
+    /**
+     * Number of successful handshakes, including the initial one.
+     */
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * Number of times a dead session was replaced by a new one.
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * Number of times the transport was found to be down.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Number of keepalive requests sent through {@link SshClient#ping()}.
+     */
+    public long getKeepAlives() {
+        return keepAlives.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionStats{connects=" + getConnects()
+                + ", reconnects=" + getReconnects()
+                + ", failures=" + getFailures()
+                + ", keepAlives=" + getKeepAlives() + "}";
+    }
+}
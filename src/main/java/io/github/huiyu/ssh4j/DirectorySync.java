@@ -0,0 +1,392 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.huiyu.ssh4j.PathUtil.createPath;
+
+/**
+ * Brings a remote directory up to date with a local one, sending only the
+ * files that are new or changed.
+ * <p>
+ * The remote tree is read once with {@link SshClient#walkFileTree} and
+ * compared with the local tree: a file is unchanged if its size and
+ * modification time (in seconds) match. Uploaded files get the local
+ * modification time, so the next sync finds them unchanged. With
+ * {@link SyncOptions#checksum(boolean)}, files that differ in modification
+ * time only are compared by SHA-256, the remote digests computed by
+ * {@code sha256sum} in batches.
+ * <p>
+ * Entries are keyed by their path relative to the synced directories.
+ */
+class DirectorySync {
+
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+    // files per remote sha256sum command
+    private static final int CHECKSUM_BATCH_SIZE = 64;
+
+    private final SshClient client;
+    private final SyncOptions options;
+    private final TransferResult result = new TransferResult();
+
+    // directories that couldn't be read or made, their contents are left alone
+    private final Set<String> failedDirs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    DirectorySync(SshClient client, SyncOptions options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    TransferResult upload(File srcDir, String dst) {
+        boolean fresh = prepareRoot(dst);
+        final String root = client.getAbsolutePath(dst);
+
+        final SortedMap<String, File> local = new TreeMap<>();
+        scanLocal(srcDir, "", local);
+        final Map<String, SshFile> remote = fresh ? new HashMap<String, SshFile>() : scanRemote(root);
+
+        Plan plan = plan(local, remote, failedDirs, options);
+        for (Map.Entry<String, SshException> e : plan.failed.entrySet()) {
+            result.failed(local.get(e.getKey()).getPath(), createPath(root, e.getKey()), e.getValue());
+        }
+        for (String relative : plan.skipped) {
+            result.fileSkipped(local.get(relative).length());
+        }
+
+        TaskGroup group = newTaskGroup("sync");
+        try {
+            deleteRemote(root, plan.deletes, group);
+            group.await();
+            createDirs(root, plan.dirs, local);
+
+            // deletes and directories that failed just now take their contents with them
+            for (final String relative : plan.uploads) {
+                if (inFailedDir(relative)) {
+                    continue;
+                }
+                final File file = local.get(relative);
+                group.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadFile(file, createPath(root, relative));
+                    }
+                });
+            }
+
+            List<String> compared = new ArrayList<>();
+            for (String relative : plan.compared) {
+                if (!inFailedDir(relative)) {
+                    compared.add(relative);
+                }
+            }
+            for (int i = 0; i < compared.size(); i += CHECKSUM_BATCH_SIZE) {
+                final List<String> batch = compared.subList(i, Math.min(i + CHECKSUM_BATCH_SIZE, compared.size()));
+                group.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        compareAndUpload(root, batch, local);
+                    }
+                });
+            }
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+        return result.finish();
+    }
+
+    /**
+     * Decide what to do with each entry of both trees.
+     *
+     * @param failedDirs directories whose contents are left alone; those that
+     *                   can't be made since a remote file is in the way are
+     *                   added
+     */
+    static Plan plan(SortedMap<String, File> local, Map<String, SshFile> remote, Set<String> failedDirs,
+                     SyncOptions options) {
+        Plan plan = new Plan();
+
+        // remote entries missing locally and entries in the way of local ones
+        Set<String> doomed = new LinkedHashSet<>();
+        if (options.isDelete()) {
+            for (String relative : new TreeMap<>(remote).keySet()) {
+                File file = local.get(relative);
+                if (file == null || file.isDirectory() != remote.get(relative).isDirectory()) {
+                    doomed.add(relative);
+                }
+            }
+        }
+        for (String relative : doomed) {
+            // entries below a doomed directory go with it
+            if (!parentIn(relative, doomed) && !inFailedDir(relative, failedDirs)) {
+                plan.deletes.add(relative);
+            }
+        }
+
+        // parents sort before their children
+        for (Map.Entry<String, File> e : local.entrySet()) {
+            String relative = e.getKey();
+            File file = e.getValue();
+            if (inFailedDir(relative, failedDirs)) {
+                continue;
+            }
+            SshFile existing = doomed.contains(relative) ? null : remote.get(relative);
+            if (file.isDirectory()) {
+                if (existing == null) {
+                    plan.dirs.add(relative);
+                } else if (!existing.isDirectory()) {
+                    plan.failed.put(relative, new SshException(SshClient.MSG_NOT_A_DIRECTORY + existing.getPath()));
+                    failedDirs.add(relative);
+                }
+            } else if (existing != null && existing.isDirectory()) {
+                plan.failed.put(relative,
+                        new SshException("Remote destination '" + existing.getPath() + "' is a directory"));
+            } else if (existing != null && existing.getLength() == file.length()
+                    && existing.getModifiedTime() == file.lastModified() / 1000) {
+                plan.skipped.add(relative);
+            } else if (existing != null && existing.getLength() == file.length() && options.isChecksum()) {
+                plan.compared.add(relative);
+            } else {
+                plan.uploads.add(relative);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return whether the remote directory was created, i.e. is known to be
+     * empty
+     */
+    private boolean prepareRoot(String dst) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            SftpATTRS attrs = SshClient.statIfExists(sftp, dst);
+            if (attrs == null) {
+                SshClient.mkdirs(sftp, dst);
+                result.directoryCreated();
+                return true;
+            }
+            if (!attrs.isDir()) {
+                throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + dst);
+            }
+            return false;
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private void scanLocal(File dir, String prefix, Map<String, File> local) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            result.failed(dir.getPath(), prefix, new SshException("Failed to list contents of: " + dir));
+            failedDirs.add(prefix);
+            return;
+        }
+        for (File f : children) {
+            String relative = prefix.isEmpty() ? f.getName() : prefix + "/" + f.getName();
+            local.put(relative, f);
+            if (f.isDirectory()) {
+                scanLocal(f, relative, local);
+            }
+        }
+    }
+
+    private Map<String, SshFile> scanRemote(String root) {
+        final String prefix = root.endsWith("/") ? root : root + "/";
+        // callbacks never run concurrently
+        final Map<String, SshFile> remote = new HashMap<>();
+        client.walkFileTree(root, new SshFileVisitor() {
+            @Override
+            public VisitResult preVisitDirectory(SshFile dir) {
+                if (dir.getPath().startsWith(prefix)) {
+                    remote.put(dir.getPath().substring(prefix.length()), dir);
+                }
+                return VisitResult.CONTINUE;
+            }
+
+            @Override
+            public VisitResult visitFile(SshFile file) {
+                remote.put(file.getPath().substring(prefix.length()), file);
+                return VisitResult.CONTINUE;
+            }
+
+            @Override
+            public VisitResult visitFileFailed(String path, SshException e) {
+                // not knowing what is in there, neither replace nor delete it
+                result.failed(path, path, e);
+                failedDirs.add(path.startsWith(prefix) ? path.substring(prefix.length()) : "");
+                return VisitResult.CONTINUE;
+            }
+        }, new WalkOptions().concurrency(options.getConcurrency()));
+        return remote;
+    }
+
+    private void deleteRemote(String root, List<String> deletes, TaskGroup group) {
+        for (final String relative : deletes) {
+            final String path = createPath(root, relative);
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.delete(path, true);
+                        result.deleted();
+                    } catch (SshException e) {
+                        result.failed(path, path, e);
+                        failedDirs.add(relative);
+                    }
+                }
+            });
+        }
+    }
+
+    private void createDirs(String root, List<String> dirs, Map<String, File> local) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            for (String relative : dirs) {
+                if (inFailedDir(relative)) {
+                    continue;
+                }
+                String path = createPath(root, relative);
+                try {
+                    sftp.mkdir(path);
+                    result.directoryCreated();
+                } catch (SftpException e) {
+                    result.failed(local.get(relative).getPath(), path, e);
+                    failedDirs.add(relative);
+                }
+            }
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    /**
+     * Compare files of the same size by digest, upload those that differ and
+     * give the others the local modification time.
+     */
+    private void compareAndUpload(String root, List<String> batch, Map<String, File> local) {
+        List<String> paths = new ArrayList<>();
+        for (String relative : batch) {
+            paths.add(createPath(root, relative));
+        }
+        Map<String, String> remoteDigests;
+        try {
+            remoteDigests = Checksums.remote(client, paths, ChecksumAlgorithm.SHA256);
+        } catch (SshException e) {
+            // the batch fails alone, like an upload would
+            for (int i = 0; i < batch.size(); i++) {
+                result.failed(local.get(batch.get(i)).getPath(), paths.get(i), e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            File file = local.get(batch.get(i));
+            String path = paths.get(i);
+            String digest;
+            try {
+                digest = Checksums.digest(file, ChecksumAlgorithm.SHA256);
+            } catch (IOException e) {
+                result.failed(file.getPath(), path, e);
+                continue;
+            }
+            if (!digest.equals(remoteDigests.get(path))) {
+                uploadFile(file, path);
+                continue;
+            }
+
+            ChannelSftp sftp = client.acquireSftpChannel();
+            try {
+                sftp.setMtime(path, (int) (file.lastModified() / 1000));
+                result.fileSkipped(file.length());
+            } catch (SftpException e) {
+                result.failed(file.getPath(), path, e);
+            } finally {
+                client.releaseSftpChannel(sftp);
+            }
+        }
+    }
+
+    private void uploadFile(File file, String path) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            try (InputStream in = new FileInputStream(file)) {
+                sftp.put(in, path, ChannelSftp.OVERWRITE);
+            }
+            sftp.setMtime(path, (int) (file.lastModified() / 1000));
+            result.fileDone(file.length());
+        } catch (Exception e) {
+            result.failed(file.getPath(), path, e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private boolean inFailedDir(String relative) {
+        return inFailedDir(relative, failedDirs);
+    }
+
+    private static boolean inFailedDir(String relative, Set<String> failedDirs) {
+        if (failedDirs.isEmpty()) {
+            return false;
+        }
+        for (String dir : failedDirs) {
+            if (dir.isEmpty() || isUnder(relative, dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean parentIn(String relative, Set<String> dirs) {
+        for (int slash = relative.lastIndexOf('/'); slash > 0; slash = relative.lastIndexOf('/', slash - 1)) {
+            if (dirs.contains(relative.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnder(String relative, String dir) {
+        return relative.startsWith(dir + "/");
+    }
+
+    private TaskGroup newTaskGroup(String name) {
+        int workers = options.getConcurrency();
+        return new TaskGroup(name, workers, workers * QUEUE_SIZE_PER_WORKER);
+    }
+
+    /**
+     * What a sync does, by path relative to the synced directories. Deletes
+     * go first, then directories are made in order, then files are sent.
+     */
+    static class Plan {
+        // remote entries to delete with their contents, if asked to
+        final List<String> deletes = new ArrayList<>();
+        final List<String> dirs = new ArrayList<>();
+        final List<String> uploads = new ArrayList<>();
+        // same size, other modification time: compared by digest
+        final List<String> compared = new ArrayList<>();
+        final List<String> skipped = new ArrayList<>();
+        final Map<String, SshException> failed = new LinkedHashMap<>();
+    }
+}
@@ -7,11 +7,37 @@ public class ExecuteResult {
     public final String out;
     public final String err;
     public final int exitCode;
+    public final CommandLatency latency;
+    /**
+     * Bytes of output dropped between the captured head and tail, see
+     * {@link SshClient.Builder#captureLimit(int, int)}.
+     */
+    public final long outDropped;
+    public final long errDropped;
 
     public ExecuteResult(String out, String err, int exitCode) {
+        this(out, err, exitCode, null);
+    }
+
+    public ExecuteResult(String out, String err, int exitCode, CommandLatency latency) {
+        this(out, err, exitCode, latency, 0, 0);
+    }
+
+    public ExecuteResult(String out, String err, int exitCode, CommandLatency latency,
+                         long outDropped, long errDropped) {
         this.out = out;
         this.err = err;
         this.exitCode = exitCode;
+        this.latency = latency;
+        this.outDropped = outDropped;
+        this.errDropped = errDropped;
+    }
+
+    /**
+     * @return true if part of the output was dropped
+     */
+    public boolean isTruncated() {
+        return outDropped > 0 || errDropped > 0;
     }
 
     public boolean hasError() {
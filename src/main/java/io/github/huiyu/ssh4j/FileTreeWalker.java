@@ -0,0 +1,212 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.huiyu.ssh4j.PathUtil.createPath;
+
+/**
+ * Walks a remote tree reading several directories at once, one per SFTP
+ * channel. A directory's entries are handed to the visitor once its listing
+ * is done and its channel released, so the visitor may use the client;
+ * subdirectories are queued then, and a directory read never waits for a
+ * channel while holding one.
+ * <p>
+ * When links are followed every directory is canonicalized before it is
+ * read, and read only the first time: a directory reached through several
+ * paths is listed once, and links to directories already read, e.g. to an
+ * ancestor, are not visited.
+ */
+class FileTreeWalker {
+
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+
+    private final SshClient client;
+    private final SshFileVisitor visitor;
+    private final WalkOptions options;
+
+    // realpaths of the directories read so far, only tracked when following links
+    private final Set<String> readDirs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private TaskGroup group;
+    private volatile boolean terminated;
+
+    FileTreeWalker(SshClient client, SshFileVisitor visitor, WalkOptions options) {
+        this.client = client;
+        this.visitor = visitor;
+        this.options = options;
+    }
+
+    void walk(String path) {
+        String root = client.getAbsolutePath(path);
+        SshFile rootFile = client.stat(root);
+        if (!rootFile.isDirectory()) {
+            visit(rootFile, 0, null);
+            return;
+        }
+        if (!preVisit(rootFile) || options.getMaxDepth() == 0) {
+            return;
+        }
+
+        int workers = options.getConcurrency();
+        group = new TaskGroup("walk", workers, workers * QUEUE_SIZE_PER_WORKER);
+        try {
+            submitRead(rootFile, 0);
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    private void submitRead(final SshFile dir, final int depth) {
+        group.submit(new Runnable() {
+            @Override
+            public void run() {
+                read(dir, depth);
+            }
+        });
+    }
+
+    private void read(final SshFile dir, final int depth) {
+        final List<SshFile> entries = new ArrayList<>();
+        final List<SshFile> links = new ArrayList<>();
+        Map<String, SshException> failures = new LinkedHashMap<>();
+
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            if (options.getSymlinkPolicy() == SymlinkPolicy.FOLLOW && !readDirs.add(sftp.realpath(dir.getPath()))) {
+                // read through another path already
+                return;
+            }
+            sftp.ls(dir.getPath(), new ChannelSftp.LsEntrySelector() {
+                @Override
+                public int select(LsEntry entry) {
+                    String name = entry.getFilename();
+                    if (name.equals(".") || name.equals("..")) {
+                        return CONTINUE;
+                    }
+                    SshFile file = client.toSshFile(entry, createPath(dir.getPath(), name));
+                    if (file.getType() == FileType.SYMBOLIC_LINK) {
+                        switch (options.getSymlinkPolicy()) {
+                            case SKIP:
+                                return CONTINUE;
+                            case FOLLOW:
+                                // the channel is busy with this listing, stat the target afterwards
+                                links.add(file);
+                                return CONTINUE;
+                            default:
+                                break;
+                        }
+                    }
+                    entries.add(file);
+                    return terminated ? BREAK : CONTINUE;
+                }
+            });
+
+            for (SshFile link : links) {
+                if (terminated) {
+                    break;
+                }
+                SshFile target = follow(sftp, link, failures);
+                if (target != null) {
+                    entries.add(target);
+                }
+            }
+        } catch (SftpException e) {
+            failures.put(dir.getPath(), new SshException(e));
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        // the visitor may use the client, so it only runs with no channel held
+        List<SshFile> subdirs = new ArrayList<>();
+        for (SshFile file : entries) {
+            visit(file, depth + 1, subdirs);
+        }
+        for (Map.Entry<String, SshException> failure : failures.entrySet()) {
+            failed(failure.getKey(), failure.getValue());
+        }
+
+        for (SshFile subdir : subdirs) {
+            if (terminated) {
+                break;
+            }
+            submitRead(subdir, depth + 1);
+        }
+    }
+
+    /**
+     * @return the link with the attributes of its target, or null if it should
+     * not be visited
+     */
+    private SshFile follow(ChannelSftp sftp, SshFile link, Map<String, SshException> failures) {
+        try {
+            SftpATTRS attrs = sftp.stat(link.getPath());
+            if (attrs.isDir() && readDirs.contains(sftp.realpath(link.getPath()))) {
+                // already read through another path, e.g. an ancestor, don't loop
+                return null;
+            }
+            return client.toSshFile(link.getName(), link.getPath(), attrs);
+        } catch (SftpException e) {
+            failures.put(link.getPath(), new SshException(e));
+            return null;
+        }
+    }
+
+    private void visit(SshFile file, int depth, List<SshFile> subdirs) {
+        SshFileFilter filter = options.getFilter();
+        if (terminated || (filter != null && !filter.accept(file))) {
+            return;
+        }
+        if (file.isDirectory() && subdirs != null) {
+            if (preVisit(file) && depth < options.getMaxDepth()) {
+                subdirs.add(file);
+            }
+            return;
+        }
+        VisitResult result;
+        synchronized (visitor) {
+            result = visitor.visitFile(file);
+        }
+        handle(result);
+    }
+
+    /**
+     * @return true if the directory should be read
+     */
+    private boolean preVisit(SshFile dir) {
+        VisitResult result;
+        synchronized (visitor) {
+            result = visitor.preVisitDirectory(dir);
+        }
+        return handle(result) == VisitResult.CONTINUE;
+    }
+
+    private void failed(String path, SshException e) {
+        VisitResult result;
+        synchronized (visitor) {
+            result = visitor.visitFileFailed(path, e);
+        }
+        handle(result);
+    }
+
+    private VisitResult handle(VisitResult result) {
+        if (result == VisitResult.TERMINATE) {
+            terminated = true;
+            if (group != null) {
+                group.cancel();
+            }
+        }
+        return result;
+    }
+}
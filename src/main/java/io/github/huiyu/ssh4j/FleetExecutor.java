@@ -0,0 +1,423 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands on many hosts at once.
+ * <p>
+ * Connections are set up in parallel on a few threads; once a host is
+ * connected its commands run through {@link SshClient#executeAsync(String)}
+ * and no thread waits for them. The number of hosts worked on at a time is
+ * bounded across all runs of the executor, so are the commands in flight per
+ * host. Clients are created per host and closed when it is done, or borrowed
+ * from and returned to a {@link SshClientPool} if one is given.
+ */
+public class FleetExecutor implements Closeable {
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+    private final int maxCommandsPerHost;
+    private final HostConnector connector;
+    private final Semaphore hostSlots;
+    private final ThreadPoolExecutor workers;
+    // handles completed commands, apart from the connects queued on workers;
+    // never shut down, so hosts in flight finish after close, its threads time out
+    private final ThreadPoolExecutor completions;
+    private volatile boolean closed;
+
+    private FleetExecutor(Builder builder) {
+        this.maxCommandsPerHost = builder.maxCommandsPerHost;
+        this.connector = builder.connector != null ? builder.connector : new ClientConnector(builder.pool);
+        this.hostSlots = new Semaphore(builder.maxHosts);
+        this.workers = newThreadPool(builder.connectThreads, "ssh4j-fleet-");
+        this.completions = newThreadPool(builder.connectThreads, "ssh4j-fleet-done-");
+    }
+
+    private static ThreadPoolExecutor newThreadPool(int threads, final String prefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public FleetResult execute(List<SshClient.Builder> hosts, String command) {
+        return execute(hosts, Collections.singletonList(command), null);
+    }
+
+    public FleetResult execute(List<SshClient.Builder> hosts, String command, HostResultHandler handler) {
+        return execute(hosts, Collections.singletonList(command), handler);
+    }
+
+    /**
+     * Run every command on every host and wait until all hosts are done.
+     *
+     * @param handler receives each host's result as soon as it is done, may be
+     *                null
+     */
+    public FleetResult execute(List<SshClient.Builder> hosts, List<String> commands, HostResultHandler handler) {
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("No available command");
+        }
+        if (workers.isShutdown()) {
+            throw new SshException("Fleet executor is closed.");
+        }
+
+        Run run = new Run(handler);
+        try {
+            for (SshClient.Builder builder : hosts) {
+                hostSlots.acquire();
+                if (run.stopped) {
+                    hostSlots.release();
+                    break;
+                }
+                final HostRun host = new HostRun(run, builder, commands);
+                run.started();
+                try {
+                    workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            host.connect();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    host.fail(closedException());
+                }
+            }
+            run.await();
+        } catch (InterruptedException e) {
+            run.stopped = true;
+            Thread.currentThread().interrupt();
+            throw new SshException(e);
+        }
+
+        if (run.handlerFailure != null) {
+            throw new SshException(run.handlerFailure);
+        }
+        return run.result.finish();
+    }
+
+    /**
+     * Stop starting hosts and commands. Runs in progress return once their
+     * running commands are done; hosts and commands not started by then fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdown();
+    }
+
+    private static SshException closedException() {
+        return new SshException("Fleet executor is closed.");
+    }
+
+    /**
+     * State of one {@code execute} call.
+     */
+    private static class Run {
+        final FleetResult result = new FleetResult();
+        final HostResultHandler handler;
+        volatile boolean stopped;
+        volatile RuntimeException handlerFailure;
+        private int pending;
+
+        Run(HostResultHandler handler) {
+            this.handler = handler;
+        }
+
+        synchronized void started() {
+            pending++;
+        }
+
+        /**
+         * Record a host's result and hand it to the handler, before the host
+         * frees its slot so no other host starts once the handler says stop.
+         */
+        void report(HostResult host) {
+            result.add(host);
+            if (handler != null && !stopped) {
+                try {
+                    boolean more;
+                    synchronized (handler) {
+                        more = handler.handle(host);
+                    }
+                    if (!more) {
+                        stopped = true;
+                    }
+                } catch (RuntimeException e) {
+                    handlerFailure = e;
+                    stopped = true;
+                }
+            }
+        }
+
+        void done() {
+            synchronized (this) {
+                pending--;
+                notifyAll();
+            }
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    private class HostRun {
+        final Run run;
+        final SshClient.Builder builder;
+        final List<String> commands;
+        final ExecuteResult[] results;
+        final long start = System.nanoTime();
+
+        long connectNanos = -1;
+        Host host;
+        int next;
+        int inFlight;
+        Exception failure;
+
+        HostRun(Run run, SshClient.Builder builder, List<String> commands) {
+            this.run = run;
+            this.builder = builder;
+            this.commands = commands;
+            this.results = new ExecuteResult[commands.size()];
+        }
+
+        void connect() {
+            if (closed) {
+                fail(closedException());
+                return;
+            }
+            try {
+                host = connector.connect(builder);
+                connectNanos = System.nanoTime() - start;
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            boolean done;
+            synchronized (this) {
+                done = launch();
+            }
+            if (done) {
+                finish();
+            }
+        }
+
+        void fail(Exception e) {
+            failure = e;
+            finish();
+        }
+
+        /**
+         * Start commands up to the per-host bound. A host that started runs
+         * all its commands even if the handler stopped the run.
+         *
+         * @return true if the host is done
+         */
+        private boolean launch() {
+            while (failure == null && next < commands.size() && inFlight < maxCommandsPerHost) {
+                if (closed) {
+                    failure = closedException();
+                    break;
+                }
+                final int index = next++;
+                final ListenableFuture<ExecuteResult> future;
+                try {
+                    future = host.executeAsync(commands.get(index));
+                } catch (Exception e) {
+                    failure = e;
+                    break;
+                }
+                inFlight++;
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        completed(index, future);
+                    }
+                }, completions);
+            }
+            return inFlight == 0;
+        }
+
+        private void completed(int index, ListenableFuture<ExecuteResult> future) {
+            boolean done;
+            synchronized (this) {
+                inFlight--;
+                try {
+                    results[index] = future.get();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                done = launch();
+            }
+            if (done) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (host != null) {
+                host.release(failure != null);
+            }
+
+            List<ExecuteResult> done = new ArrayList<>(results.length);
+            for (ExecuteResult r : results) {
+                if (r != null) {
+                    done.add(r);
+                }
+            }
+            HostResult result = new HostResult(builder.endpoint(), done, failure,
+                    connectNanos, System.nanoTime() - start);
+            run.report(result);
+            hostSlots.release();
+            run.done();
+        }
+    }
+
+    /**
+     * Gets a host ready to run commands; tests stub it.
+     */
+    interface HostConnector {
+        Host connect(SshClient.Builder builder) throws Exception;
+    }
+
+    interface Host {
+        ListenableFuture<ExecuteResult> executeAsync(String command);
+
+        /**
+         * Called once the host is done.
+         *
+         * @param failed whether a command or the connection failed
+         */
+        void release(boolean failed);
+    }
+
+    /**
+     * Hosts on clients created per host, or borrowed from a pool.
+     */
+    private static class ClientConnector implements HostConnector {
+        private final SshClientPool pool;
+
+        ClientConnector(SshClientPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public Host connect(SshClient.Builder builder) {
+            final SshClient client = pool != null ? pool.borrow(builder) : builder.create();
+            return new Host() {
+                @Override
+                public ListenableFuture<ExecuteResult> executeAsync(String command) {
+                    return client.executeAsync(command);
+                }
+
+                @Override
+                public void release(boolean failed) {
+                    if (pool == null) {
+                        client.close();
+                    } else if (failed && !client.isOpen()) {
+                        pool.invalidate(client);
+                    } else {
+                        pool.release(client);
+                    }
+                }
+            };
+        }
+    }
+
+    public static class Builder {
+
+        private int maxHosts = 64;
+        private int maxCommandsPerHost = 4;
+        private int connectThreads = 16;
+        private SshClientPool pool;
+        private HostConnector connector;
+
+        private Builder() {
+        }
+
+        /**
+         * Hosts connected and running commands at a time, across all runs.
+         */
+        public Builder maxHosts(int maxHosts) {
+            if (maxHosts <= 0) {
+                throw new IllegalArgumentException("Max hosts must be positive.");
+            }
+            this.maxHosts = maxHosts;
+            return this;
+        }
+
+        /**
+         * Commands in flight on one host when a run has several commands.
+         */
+        public Builder maxCommandsPerHost(int maxCommandsPerHost) {
+            if (maxCommandsPerHost <= 0) {
+                throw new IllegalArgumentException("Max commands per host must be positive.");
+            }
+            this.maxCommandsPerHost = maxCommandsPerHost;
+            return this;
+        }
+
+        /**
+         * Threads setting up connections. Handshakes are mostly waiting on the
+         * network, so this may well exceed the number of cores. As many threads
+         * of their own handle completed commands.
+         */
+        public Builder connectThreads(int connectThreads) {
+            if (connectThreads <= 0) {
+                throw new IllegalArgumentException("Connect threads must be positive.");
+            }
+            this.connectThreads = connectThreads;
+            return this;
+        }
+
+        /**
+         * Borrow clients from the pool instead of opening a session per host
+         * and run.
+         */
+        public Builder pool(SshClientPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        Builder connector(HostConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public FleetExecutor build() {
+            return new FleetExecutor(this);
+        }
+    }
+}
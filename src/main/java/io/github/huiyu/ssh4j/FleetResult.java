@@ -0,0 +1,112 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregate of a {@link FleetExecutor} run, with the hosts in completion order.
+ */
+public class FleetResult {
+
+    private final List<HostResult> hosts = new ArrayList<>();
+    private final long start = System.nanoTime();
+    private long elapsedNanos;
+
+    synchronized void add(HostResult host) {
+        hosts.add(host);
+    }
+
+    FleetResult finish() {
+        elapsedNanos = System.nanoTime() - start;
+        return this;
+    }
+
+    public synchronized List<HostResult> getHosts() {
+        return Collections.unmodifiableList(new ArrayList<>(hosts));
+    }
+
+    public synchronized int getSucceeded() {
+        int n = 0;
+        for (HostResult host : hosts) {
+            if (host.isSuccess()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Hosts that failed to connect or run a command to completion.
+     */
+    public synchronized int getFailed() {
+        int n = 0;
+        for (HostResult host : hosts) {
+            if (host.getFailure() != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Number of hosts per {@link HostResult#getExitCode() exit code}.
+     */
+    public synchronized Map<Integer, Integer> getExitCodes() {
+        Map<Integer, Integer> counts = new TreeMap<>();
+        for (HostResult host : hosts) {
+            Integer n = counts.get(host.getExitCode());
+            counts.put(host.getExitCode(), n == null ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * The host that took longest, or null if there were none.
+     */
+    public synchronized HostResult getSlowest() {
+        HostResult slowest = null;
+        for (HostResult host : hosts) {
+            if (slowest == null || host.getElapsedNanos() > slowest.getElapsedNanos()) {
+                slowest = host;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Average time to get a connected client, over the hosts that got one.
+     */
+    public synchronized long getAverageConnectNanos() {
+        long total = 0;
+        int n = 0;
+        for (HostResult host : hosts) {
+            if (host.getConnectNanos() >= 0) {
+                total += host.getConnectNanos();
+                n++;
+            }
+        }
+        return n == 0 ? 0 : total / n;
+    }
+
+    /**
+     * Wall time of the whole run.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        HostResult slowest = getSlowest();
+        return "FleetResult{hosts=" + getHosts().size()
+                + ", succeeded=" + getSucceeded()
+                + ", failed=" + getFailed()
+                + ", exitCodes=" + getExitCodes()
+                + ", elapsedNanos=" + elapsedNanos
+                + ", slowestNanos=" + (slowest == null ? 0 : slowest.getElapsedNanos())
+                + ", averageConnectNanos=" + getAverageConnectNanos() + "}";
+    }
+}
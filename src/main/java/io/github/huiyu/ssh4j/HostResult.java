@@ -0,0 +1,91 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of the commands of a {@link FleetExecutor} run on one host.
+ */
+public class HostResult {
+
+    private final String endpoint;
+    private final List<ExecuteResult> results;
+    private final Exception failure;
+    private final long connectNanos;
+    private final long elapsedNanos;
+
+    HostResult(String endpoint, List<ExecuteResult> results, Exception failure, long connectNanos, long elapsedNanos) {
+        this.endpoint = endpoint;
+        this.results = Collections.unmodifiableList(results);
+        this.failure = failure;
+        this.connectNanos = connectNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * {@code user@host:port}
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Results in command order; commands that failed or weren't run because
+     * of a failure are left out.
+     */
+    public List<ExecuteResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Why the host didn't run all commands (connection or channel failure), or
+     * null.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * The first non-zero exit code, 0 if all commands succeeded, or -1 if the
+     * host failed or a command didn't report one.
+     */
+    public int getExitCode() {
+        if (failure != null) {
+            return -1;
+        }
+        for (ExecuteResult result : results) {
+            if (result.exitCode != 0) {
+                return result.exitCode;
+            }
+        }
+        return 0;
+    }
+
+    public boolean isSuccess() {
+        return getExitCode() == 0;
+    }
+
+    /**
+     * Time to get a connected client, or -1 if none was obtained.
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Time from the start of the host to its last command's exit.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "HostResult{endpoint=" + endpoint
+                + ", exitCode=" + getExitCode()
+                + ", commands=" + results.size()
+                + ", connectNanos=" + connectNanos
+                + ", elapsedNanos=" + elapsedNanos
+                + (failure == null ? "" : ", failure=" + failure) + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Receives the outcome of each host of a {@link FleetExecutor} run as soon as
+ * the host is done. Calls are serialized.
+ */
+public interface HostResultHandler {
+
+    /**
+     * @return true to keep going, false to start no further hosts (hosts
+     * already started still finish)
+     */
+    boolean handle(HostResult result);
+}
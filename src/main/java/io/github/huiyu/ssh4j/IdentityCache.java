@@ -0,0 +1,201 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remote uid/gid to name resolution for one client, i.e. one host.
+ * <p>
+ * The passwd and group tables are fetched with a single command and kept for
+ * a TTL. Ids missing from the tables (e.g. directory services that don't
+ * enumerate) are looked up one at a time and the answer, found or not, is
+ * kept until the next reload.
+ */
+class IdentityCache {
+
+    static final String SEPARATOR = "--ssh4j-group--";
+
+    private static final String LOAD_COMMAND = "getent passwd; echo " + SEPARATOR + "; getent group";
+
+    // getent: key could not be found in the database
+    private static final int EXIT_NOT_FOUND = 2;
+
+    // marks ids known to have no name, compared by identity
+    private static final String MISSING = new String("");
+
+    private final SshClient client;
+    private final long ttlMillis;
+
+    private volatile Tables tables;
+
+    IdentityCache(SshClient client, long ttlMillis) {
+        this.client = client;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the user name, or null if the uid has none
+     */
+    String userName(int uid) {
+        return lookup(tables().users, "passwd", uid);
+    }
+
+    /**
+     * @return the group name, or null if the gid has none
+     */
+    String groupName(int gid) {
+        return lookup(tables().groups, "group", gid);
+    }
+
+    /**
+     * @param user a user name or a numeric uid
+     * @return the uid
+     * @throws SshException if the host has no such user
+     */
+    int userId(String user) {
+        return reverseLookup(tables().users, "passwd", user);
+    }
+
+    /**
+     * @param group a group name or a numeric gid
+     * @return the gid
+     * @throws SshException if the host has no such group
+     */
+    int groupId(String group) {
+        return reverseLookup(tables().groups, "group", group);
+    }
+
+    /**
+     * Drop the tables so that the next lookup reloads them.
+     */
+    void invalidate() {
+        tables = null;
+    }
+
+    private String lookup(ConcurrentMap<Integer, String> names, String database, int id) {
+        String name = names.get(id);
+        if (name == null) {
+            name = lookupOne(database, id);
+            names.putIfAbsent(id, name == null ? MISSING : name);
+        }
+        return name == MISSING ? null : name;
+    }
+
+    private int reverseLookup(ConcurrentMap<Integer, String> names, String database, String name) {
+        if (isNumeric(name)) {
+            return Integer.parseInt(name);
+        }
+        for (Map.Entry<Integer, String> e : names.entrySet()) {
+            if (name.equals(e.getValue())) {
+                return e.getKey();
+            }
+        }
+        ExecuteResult result = client.executeFully("getent " + database + " " + SourcedEnvironment.quote(name));
+        if (result.exitCode == EXIT_NOT_FOUND) {
+            throw new SshException("No such " + (database.equals("passwd") ? "user" : "group") + ": " + name);
+        }
+        if (result.hasError()) {
+            throw new SshException(result.err);
+        }
+        int id = parseId(result.out);
+        names.putIfAbsent(id, name);
+        return id;
+    }
+
+    private String lookupOne(String database, int id) {
+        ExecuteResult result = client.executeFully("getent " + database + " " + id);
+        if (result.exitCode == EXIT_NOT_FOUND) {
+            return null;
+        }
+        if (result.hasError()) {
+            throw new SshException(result.err);
+        }
+        return parseName(result.out);
+    }
+
+    private Tables tables() {
+        Tables t = tables;
+        if (t == null || System.currentTimeMillis() - t.loadedAt > ttlMillis) {
+            synchronized (this) {
+                t = tables;
+                if (t == null || System.currentTimeMillis() - t.loadedAt > ttlMillis) {
+                    t = load();
+                    tables = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private Tables load() {
+        Tables t = new Tables();
+        ExecuteResult result = client.executeFully(LOAD_COMMAND);
+        // a failing load leaves empty tables, lookups fall back to one id at a time
+        parse(result.out, t.users, t.groups);
+        return t;
+    }
+
+    /**
+     * Parse {@code getent passwd}, the separator line and {@code getent group}
+     * output. The first entry of an id wins, as it does for getent lookups.
+     */
+    static void parse(String output, Map<Integer, String> users, Map<Integer, String> groups) {
+        Map<Integer, String> target = users;
+        for (String line : output.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (SEPARATOR.equals(line)) {
+                target = groups;
+                continue;
+            }
+            String[] fields = line.split(":", -1);
+            if (fields.length < 3 || fields[0].isEmpty()) {
+                continue;
+            }
+            try {
+                Integer id = Integer.valueOf(fields[2]);
+                if (!target.containsKey(id)) {
+                    target.put(id, fields[0]);
+                }
+            } catch (NumberFormatException e) {
+                // not an entry line
+            }
+        }
+    }
+
+    static String parseName(String entry) {
+        String line = entry.trim();
+        int colon = line.indexOf(':');
+        String name = colon < 0 ? line : line.substring(0, colon);
+        return name.isEmpty() ? null : name;
+    }
+
+    static int parseId(String entry) {
+        String[] fields = entry.trim().split(":", -1);
+        if (fields.length < 3 || !isNumeric(fields[2])) {
+            throw new SshException("Unexpected getent output: " + entry);
+        }
+        return Integer.parseInt(fields[2]);
+    }
+
+    private static boolean isNumeric(String s) {
+        if (s.isEmpty() || s.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Tables {
+        final ConcurrentMap<Integer, String> users = new ConcurrentHashMap<>();
+        final ConcurrentMap<Integer, String> groups = new ConcurrentHashMap<>();
+        final long loadedAt = System.currentTimeMillis();
+    }
+}
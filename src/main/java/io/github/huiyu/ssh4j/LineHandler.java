@@ -0,0 +1,13 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Receives command output one line at a time.
+ */
+public interface LineHandler {
+
+    /**
+     * @param line the line without its terminator. The sequence is reused for
+     *             the next line, call {@code toString()} to keep it.
+     */
+    void handle(CharSequence line);
+}
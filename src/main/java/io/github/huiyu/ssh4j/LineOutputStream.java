@@ -0,0 +1,133 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes bytes into lines as they are written and hands each line to a
+ * {@link LineHandler}.
+ * <p>
+ * The decoder, the character buffer and the line buffer are reused, so
+ * nothing is allocated per line. Lines end at {@code \n}, a trailing
+ * {@code \r} is dropped. Lines longer than the maximum length are handed over
+ * in pieces rather than buffered whole. Malformed input is replaced. Closing
+ * the stream hands over the last line if it has no terminator.
+ */
+public class LineOutputStream extends OutputStream {
+
+    public static final int DEFAULT_MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+    private final LineHandler handler;
+    private final CharsetDecoder decoder;
+    private final int maxLineLength;
+
+    // the start of a character split between two writes
+    private final ByteBuffer pending = ByteBuffer.allocate(16);
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder();
+
+    private boolean closed;
+
+    public LineOutputStream(LineHandler handler) {
+        this(handler, Charset.defaultCharset(), DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    public LineOutputStream(LineHandler handler, Charset charset) {
+        this(handler, charset, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    public LineOutputStream(LineHandler handler, Charset charset, int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("Max line length must be positive.");
+        }
+        this.handler = handler;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxLineLength = maxLineLength;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (closed) {
+            return;
+        }
+        int end = off + len;
+        // complete a split character byte by byte, it is a few bytes at most
+        while (pending.position() > 0 && off < end) {
+            pending.put(b[off++]);
+            pending.flip();
+            decode(pending, false);
+            pending.compact();
+        }
+        if (off < end) {
+            ByteBuffer in = ByteBuffer.wrap(b, off, end - off);
+            decode(in, false);
+            pending.put(in);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.flip();
+        decode(pending, true);
+        while (decoder.flush(chars).isOverflow()) {
+            drain();
+        }
+        drain();
+        if (line.length() > 0) {
+            emit(false);
+        }
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, endOfInput);
+            drain();
+            if (!result.isOverflow()) {
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        chars.flip();
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (c == '\n') {
+                emit(true);
+            } else {
+                line.append(c);
+                if (line.length() >= maxLineLength) {
+                    emit(false);
+                }
+            }
+        }
+        chars.clear();
+    }
+
+    private void emit(boolean terminated) {
+        int length = line.length();
+        if (terminated && length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        handler.handle(line);
+        line.setLength(0);
+    }
+}
@@ -0,0 +1,259 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import com.jcraft.jsch.SftpATTRS;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.github.huiyu.ssh4j.PathUtil.getParentPath;
+
+/**
+ * Remote realpath and stat results of one client, kept for a TTL.
+ * <p>
+ * Entries are keyed by the path as the caller gave it; a missing path is
+ * remembered as absent. Changes made through the client invalidate the path,
+ * everything below it and its parent, matched both as given and as resolved.
+ * Changes made by commands or by other clients are only seen once entries
+ * expire.
+ * <p>
+ * Keys are indexed by the path they name and by their realpath, and paths by
+ * their parent, so an invalidation touches only the entries it drops.
+ */
+class MetadataCache {
+
+    private final Cache<String, Optional<String>> realpaths;
+    private final Cache<String, Optional<SftpATTRS>> attributes;
+    // the rest guarded by this: the keys naming a path, as given or resolved
+    private final Map<String, Set<String>> keysByPath = new HashMap<>();
+    // the paths right below a directory that name a key or lead to one
+    private final Map<String, Set<String>> children = new HashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    MetadataCache(long ttlMillis, int maxEntries) {
+        this.realpaths = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .removalListener(new RemovalListener<String, Optional<String>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Optional<String>> removed) {
+                        removed(removed.getKey(), removed.getValue());
+                    }
+                })
+                .build();
+        this.attributes = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .removalListener(new RemovalListener<String, Optional<SftpATTRS>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Optional<SftpATTRS>> removed) {
+                        removed(removed.getKey(), null);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return the cached realpath, absent if the path is known not to exist,
+     * or null if nothing is cached
+     */
+    Optional<String> realpath(String path) {
+        return realpaths.getIfPresent(path);
+    }
+
+    synchronized void putRealpath(String path, Optional<String> realpath) {
+        realpaths.put(path, realpath);
+        index(name(path), path);
+        if (realpath.isPresent()) {
+            index(name(realpath.get()), path);
+        }
+    }
+
+    /**
+     * @return the cached attributes, absent if the path is known not to
+     * exist, or null if nothing is cached
+     */
+    Optional<SftpATTRS> attributes(String path) {
+        return attributes.getIfPresent(path);
+    }
+
+    synchronized void putAttributes(String path, Optional<SftpATTRS> attrs) {
+        attributes.put(path, attrs);
+        index(name(path), path);
+    }
+
+    /**
+     * Drop what is cached about the path, the paths below it and its parent.
+     */
+    synchronized void invalidate(String path) {
+        Set<String> targets = new HashSet<>();
+        targets.add(name(path));
+        Optional<String> real = realpaths.asMap().get(path);
+        if (real != null && real.isPresent()) {
+            targets.add(name(real.get()));
+        }
+
+        Set<String> stale = new HashSet<>();
+        for (String target : targets) {
+            collectBelow(target, stale);
+            String parent = parent(target);
+            if (parent != null) {
+                collect(parent, stale);
+            }
+        }
+        // the removal listeners update the index
+        realpaths.invalidateAll(stale);
+        attributes.invalidateAll(stale);
+        invalidations.incrementAndGet();
+    }
+
+    synchronized void invalidateAll() {
+        realpaths.invalidateAll();
+        attributes.invalidateAll();
+        keysByPath.clear();
+        children.clear();
+        invalidations.incrementAndGet();
+    }
+
+    MetadataCacheStats stats() {
+        CacheStats r = realpaths.stats();
+        CacheStats a = attributes.stats();
+        return new MetadataCacheStats(r.hitCount(), r.missCount(), a.hitCount(), a.missCount(),
+                r.evictionCount() + a.evictionCount(), invalidations.get(),
+                realpaths.size() + attributes.size());
+    }
+
+    /**
+     * The number of paths in the index, which follows the entries.
+     */
+    synchronized int indexSize() {
+        Set<String> paths = new HashSet<>(keysByPath.keySet());
+        paths.addAll(children.keySet());
+        return paths.size();
+    }
+
+    private void collect(String name, Set<String> stale) {
+        Set<String> keys = keysByPath.get(name);
+        if (keys != null) {
+            stale.addAll(keys);
+        }
+    }
+
+    private void collectBelow(String name, Set<String> stale) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(name);
+        while (!pending.isEmpty()) {
+            String next = pending.pop();
+            collect(next, stale);
+            Set<String> below = children.get(next);
+            if (below != null) {
+                pending.addAll(below);
+            }
+        }
+    }
+
+    /**
+     * An entry of either cache was removed, replaced or expired: unindex the
+     * key from the paths no entry of it names anymore.
+     *
+     * @param realpath the removed realpath, or null for attributes
+     */
+    private synchronized void removed(String key, Optional<String> realpath) {
+        Optional<String> current = realpaths.asMap().get(key);
+        Set<String> kept = new HashSet<>();
+        if (current != null || attributes.asMap().containsKey(key)) {
+            kept.add(name(key));
+        }
+        if (current != null && current.isPresent()) {
+            kept.add(name(current.get()));
+        }
+        if (!kept.contains(name(key))) {
+            unindex(name(key), key);
+        }
+        if (realpath != null && realpath.isPresent() && !kept.contains(name(realpath.get()))) {
+            unindex(name(realpath.get()), key);
+        }
+    }
+
+    private void index(String name, String key) {
+        Set<String> keys = keysByPath.get(name);
+        if (keys == null) {
+            keys = new HashSet<>();
+            keysByPath.put(name, keys);
+        }
+        keys.add(key);
+        // link the path up to the first ancestor already linked
+        for (String child = name, parent = parent(child); parent != null; child = parent, parent = parent(child)) {
+            Set<String> below = children.get(parent);
+            if (below == null) {
+                below = new HashSet<>();
+                children.put(parent, below);
+            }
+            if (!below.add(child)) {
+                break;
+            }
+        }
+    }
+
+    private void unindex(String name, String key) {
+        Set<String> keys = keysByPath.get(name);
+        if (keys == null || !keys.remove(key) || !keys.isEmpty()) {
+            return;
+        }
+        keysByPath.remove(name);
+        // unlink the paths that lead to nothing anymore
+        for (String child = name, parent = parent(child); parent != null; child = parent, parent = parent(child)) {
+            if (keysByPath.containsKey(child) || children.containsKey(child)) {
+                break;
+            }
+            Set<String> below = children.get(parent);
+            if (below == null) {
+                break;
+            }
+            below.remove(child);
+            if (!below.isEmpty()) {
+                break;
+            }
+            children.remove(parent);
+        }
+    }
+
+    /**
+     * The path without trailing slashes: "/a/b/" and "/a/b" are the same file.
+     */
+    private static String name(String path) {
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * @return the parent of a path as returned by {@link #name(String)}, or
+     * null at the root or the top of a relative path
+     */
+    private static String parent(String name) {
+        if (name.trim().isEmpty() || name.equals("/")) {
+            return null;
+        }
+        String parent = getParentPath(name);
+        if (parent.isEmpty()) {
+            return name.startsWith("/") ? "/" : null;
+        }
+        return parent;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Snapshot of the metadata cache of a {@link SshClient}.
+ */
+public class MetadataCacheStats {
+
+    private final long realpathHits;
+    private final long realpathMisses;
+    private final long attributeHits;
+    private final long attributeMisses;
+    private final long evictions;
+    private final long invalidations;
+    private final long size;
+
+    MetadataCacheStats(long realpathHits, long realpathMisses, long attributeHits, long attributeMisses,
+                       long evictions, long invalidations, long size) {
+        this.realpathHits = realpathHits;
+        this.realpathMisses = realpathMisses;
+        this.attributeHits = attributeHits;
+        this.attributeMisses = attributeMisses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+    }
+
+    public long getRealpathHits() {
+        return realpathHits;
+    }
+
+    public long getRealpathMisses() {
+        return realpathMisses;
+    }
+
+    public long getAttributeHits() {
+        return attributeHits;
+    }
+
+    public long getAttributeMisses() {
+        return attributeMisses;
+    }
+
+    /**
+     * Round trips saved over all lookups, between 0 and 1.
+     */
+    public double getHitRate() {
+        long hits = realpathHits + attributeHits;
+        long total = hits + realpathMisses + attributeMisses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Entries dropped because they expired or the cache was full.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Number of invalidations caused by changes made through the client.
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCacheStats{realpathHits=" + realpathHits
+                + ", realpathMisses=" + realpathMisses
+                + ", attributeHits=" + attributeHits
+                + ", attributeMisses=" + attributeMisses
+                + ", hitRate=" + getHitRate()
+                + ", evictions=" + evictions
+                + ", invalidations=" + invalidations
+                + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Hands the output of a command from the session's transport thread over to
+ * the thread waiting for the command, which writes it to the caller's
+ * streams.
+ * <p>
+ * Caller streams and line handlers may then be slow or call back into the
+ * client without holding up the session. The hand-over holds up to a fixed
+ * number of bytes; beyond that the transport thread waits for the caller to
+ * catch up, and with it the session's other channels.
+ */
+class OutputPump {
+
+    private static final Chunk END = new Chunk(null, null, 0);
+
+    private final int capacity;
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+    private int buffered;
+    private boolean closed;
+
+    OutputPump(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * A stream for the transport thread whose data goes to {@code target}, or
+     * null if the target is null.
+     */
+    OutputStream stream(final OutputStream target) {
+        if (target == null) {
+            return null;
+        }
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                put(new Chunk(target, Arrays.copyOfRange(b, off, off + len), len));
+            }
+        };
+    }
+
+    /**
+     * Mark the end of the output, after which {@link #drain()} returns.
+     */
+    synchronized void end() {
+        chunks.add(END);
+        notifyAll();
+    }
+
+    /**
+     * Write the output to the targets as it comes, until the end.
+     *
+     * @throws IOException if a target fails, the rest of the output is then
+     *                     dropped and the command should be cancelled
+     */
+    void drain() throws IOException, InterruptedException {
+        try {
+            while (true) {
+                Chunk chunk;
+                synchronized (this) {
+                    while (chunks.isEmpty()) {
+                        wait();
+                    }
+                    chunk = chunks.poll();
+                    buffered -= chunk.length;
+                    notifyAll();
+                }
+                if (chunk == END) {
+                    break;
+                }
+                chunk.target.write(chunk.data, 0, chunk.length);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private synchronized void put(Chunk chunk) throws InterruptedIOException {
+        // a chunk larger than the capacity still goes through, on its own
+        while (!closed && buffered > 0 && buffered + chunk.length > capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (closed) {
+            // the caller has given up on the output, the command is being cancelled
+            return;
+        }
+        chunks.add(chunk);
+        buffered += chunk.length;
+        notifyAll();
+    }
+
+    private synchronized void close() {
+        closed = true;
+        chunks.clear();
+        buffered = 0;
+        notifyAll();
+    }
+
+    private static class Chunk {
+
+        final OutputStream target;
+        final byte[] data;
+        final int length;
+
+        Chunk(OutputStream target, byte[] data, int length) {
+            this.target = target;
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
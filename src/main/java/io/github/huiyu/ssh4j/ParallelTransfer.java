@@ -0,0 +1,334 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import static io.github.huiyu.ssh4j.PathUtil.createPath;
+
+/**
+ * Recursive copies spread over several SFTP channels of one client.
+ */
+class ParallelTransfer {
+
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+
+    private final SshClient client;
+    private final TransferOptions options;
+    private final TransferResult result = new TransferResult();
+
+    ParallelTransfer(SshClient client, TransferOptions options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    /**
+     * Copy the contents of a local directory into a remote directory. The
+     * remote directory tree is created first, parents before children, then the
+     * files are uploaded. Files in directories created by this transfer are
+     * known not to exist, so they are uploaded without a prior {@code stat}.
+     */
+    TransferResult upload(File srcDir, String dst) {
+        RemoteDir root = new RemoteDir(srcDir, dst, null);
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            SftpATTRS attrs = SshClient.statIfExists(sftp, dst);
+            if (attrs == null) {
+                SshClient.mkdirs(sftp, dst);
+                root.fresh = true;
+            } else if (!attrs.isDir()) {
+                throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + dst);
+            }
+            root.ready = true;
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        List<UploadFile> files = new ArrayList<>();
+        scanLocal(root, files);
+
+        TaskGroup group = newTaskGroup("upload");
+        try {
+            submitChildren(root, group);
+            group.await();
+
+            for (final UploadFile file : files) {
+                if (!file.parent.ready) {
+                    // the parent directory failed and has been reported
+                    continue;
+                }
+                group.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadFile(file);
+                    }
+                });
+            }
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+        return result.finish();
+    }
+
+    /**
+     * Copy the contents of a remote directory into a local directory. Directory
+     * listings and file downloads run on the same workers; a listing that finds
+     * the work queue full downloads the overflow itself, so a huge tree never
+     * queues more than a bounded number of pending tasks.
+     */
+    TransferResult download(String src, File dstDir) {
+        if (dstDir.exists() && !dstDir.isDirectory()) {
+            throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + dstDir);
+        }
+
+        TaskGroup group = newTaskGroup("download");
+        try {
+            submitListing(src, dstDir, group);
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+        return result.finish();
+    }
+
+    private void submitListing(final String remoteDir, final File localDir, final TaskGroup group) {
+        group.submit(new Runnable() {
+            @Override
+            public void run() {
+                listRemote(remoteDir, localDir, group);
+            }
+        });
+    }
+
+    private void listRemote(String remoteDir, File localDir, final TaskGroup group) {
+        if (!localDir.isDirectory()) {
+            if (!localDir.mkdirs() && !localDir.isDirectory()) {
+                result.failed(remoteDir, localDir.getPath(), new SshException("Failed to create directory: " + localDir));
+                return;
+            }
+            result.directoryCreated();
+        }
+
+        Vector<?> entries;
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            entries = sftp.ls(remoteDir);
+        } catch (SftpException e) {
+            result.failed(remoteDir, localDir.getPath(), e);
+            return;
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        for (Object o : entries) {
+            LsEntry entry = (LsEntry) o;
+            String name = entry.getFilename();
+            if (".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+            final String remote = createPath(remoteDir, name);
+            final File local = new File(localDir, name);
+            final SftpATTRS attrs = entry.getAttrs();
+            if (attrs.isDir()) {
+                submitListing(remote, local, group);
+            } else {
+                group.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        downloadFile(remote, local, attrs);
+                    }
+                });
+            }
+        }
+    }
+
+    private void downloadFile(String remote, File local, SftpATTRS attrs) {
+        if (local.exists() && !options.isOverwrite() && !options.isResume()) {
+            result.failed(remote, local.getPath(), new SshException(SshClient.MSG_FILE_ALREADY_EXISTS + local));
+            return;
+        }
+
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            ChecksumAlgorithm verify = options.getVerify();
+            if (options.isResume()) {
+                result.resumed(ResumableTransfer.download(client, sftp, remote, local, null));
+                if (verify != null) {
+                    Checksums.verify(client, local, remote, verify);
+                }
+                result.fileDone(local.length());
+                return;
+            }
+            if (attrs.isLink()) {
+                // listings report the link itself, copy what it points to
+                attrs = sftp.stat(remote);
+                if (attrs.isDir()) {
+                    throw new SshException(SshClient.MSG_NOT_A_FILE + remote);
+                }
+            }
+            // the host reads the file for its digest while we do
+            ListenableFuture<ExecuteResult> remoteDigest = verify == null ? null
+                    : Checksums.startRemote(client, remote, verify);
+            MessageDigest digest = verify == null ? null : verify.newDigest();
+            try (OutputStream out = digest == null ? new FileOutputStream(local)
+                    : new DigestOutputStream(new FileOutputStream(local), digest)) {
+                sftp.get(remote, out);
+            } catch (Exception e) {
+                if (remoteDigest != null) {
+                    remoteDigest.cancel(true);
+                }
+                throw e;
+            }
+            if (remoteDigest != null) {
+                Checksums.check(remoteDigest, remote, Checksums.hex(digest), verify);
+            }
+            result.fileDone(attrs.getSize());
+        } catch (Exception e) {
+            result.failed(remote, local.getPath(), e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private void scanLocal(RemoteDir dir, List<UploadFile> files) {
+        File[] children = dir.local.listFiles();
+        if (children == null) {
+            result.failed(dir.local.getPath(), dir.remote, new SshException("Failed to list contents of: " + dir.local));
+            return;
+        }
+        for (File f : children) {
+            String remote = createPath(dir.remote, f.getName());
+            if (f.isDirectory()) {
+                dir.children.add(new RemoteDir(f, remote, dir));
+            } else {
+                files.add(new UploadFile(f, remote, dir));
+            }
+        }
+        for (RemoteDir child : dir.children) {
+            scanLocal(child, files);
+        }
+    }
+
+    private void submitChildren(RemoteDir dir, final TaskGroup group) {
+        for (final RemoteDir child : dir.children) {
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (createDir(child)) {
+                        submitChildren(child, group);
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean createDir(RemoteDir dir) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            try {
+                sftp.mkdir(dir.remote);
+                dir.fresh = true;
+                result.directoryCreated();
+            } catch (SftpException e) {
+                SftpATTRS attrs = SshClient.statIfExists(sftp, dir.remote);
+                if (attrs == null) {
+                    throw e;
+                }
+                if (!attrs.isDir()) {
+                    throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + dir.remote);
+                }
+            }
+            dir.ready = true;
+            return true;
+        } catch (Exception e) {
+            result.failed(dir.local.getPath(), dir.remote, e);
+            return false;
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private void uploadFile(UploadFile file) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            ChecksumAlgorithm verify = options.getVerify();
+            if (options.isResume() && !file.parent.fresh) {
+                result.resumed(ResumableTransfer.upload(client, sftp, file.local, file.remote, null));
+                if (verify != null) {
+                    Checksums.verify(client, file.local, file.remote, verify);
+                }
+                result.fileDone(file.local.length());
+                return;
+            }
+            if (!options.isOverwrite() && !file.parent.fresh && SshClient.statIfExists(sftp, file.remote) != null) {
+                throw new SshException(SshClient.MSG_FILE_ALREADY_EXISTS + file.remote);
+            }
+            long length = file.local.length();
+            MessageDigest digest = verify == null ? null : verify.newDigest();
+            try (InputStream in = digest == null ? new FileInputStream(file.local)
+                    : new DigestInputStream(new FileInputStream(file.local), digest)) {
+                sftp.put(in, file.remote, ChannelSftp.OVERWRITE);
+            }
+            if (digest != null) {
+                Checksums.check(Checksums.startRemote(client, file.remote, verify), file.remote,
+                        Checksums.hex(digest), verify);
+            }
+            result.fileDone(length);
+        } catch (Exception e) {
+            result.failed(file.local.getPath(), file.remote, e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private TaskGroup newTaskGroup(String name) {
+        int workers = options.getConcurrency();
+        return new TaskGroup(name, workers, workers * QUEUE_SIZE_PER_WORKER);
+    }
+
+    private static class RemoteDir {
+        final File local;
+        final String remote;
+        final RemoteDir parent;
+        final List<RemoteDir> children = new ArrayList<>();
+        // created by this transfer, so known to be empty
+        volatile boolean fresh;
+        volatile boolean ready;
+
+        RemoteDir(File local, String remote, RemoteDir parent) {
+            this.local = local;
+            this.remote = remote;
+            this.parent = parent;
+        }
+    }
+
+    private static class UploadFile {
+        final File local;
+        final String remote;
+        final RemoteDir parent;
+
+        UploadFile(File local, String remote, RemoteDir parent) {
+            this.local = local;
+            this.remote = remote;
+            this.parent = parent;
+        }
+    }
+}
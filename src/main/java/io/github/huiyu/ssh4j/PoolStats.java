@@ -0,0 +1,66 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link SshClientPool}.
+ */
+public class PoolStats {
+
+    final AtomicLong borrows = new AtomicLong();
+    final AtomicLong waits = new AtomicLong();
+    final AtomicLong waitTimeMillis = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong creations = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    /**
+     * Number of borrows that had to wait for a session to be returned.
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Total time spent by borrows that had to wait.
+     */
+    public long getWaitTimeMillis() {
+        return waitTimeMillis.get();
+    }
+
+    /**
+     * Number of borrows that gave up waiting.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Number of sessions opened by the pool.
+     */
+    public long getCreations() {
+        return creations.get();
+    }
+
+    /**
+     * Number of sessions closed because they were idle too long, failed
+     * validation or were invalidated.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{borrows=" + getBorrows()
+                + ", waits=" + getWaits()
+                + ", waitTimeMillis=" + getWaitTimeMillis()
+                + ", timeouts=" + getTimeouts()
+                + ", creations=" + getCreations()
+                + ", evictions=" + getEvictions() + "}";
+    }
+}
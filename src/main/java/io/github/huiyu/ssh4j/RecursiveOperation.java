@@ -0,0 +1,250 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.huiyu.ssh4j.PathUtil.createPath;
+
+/**
+ * Applies an SFTP request to every path of a remote tree, spread over the SFTP
+ * channels of a client. A channel handles one request at a time, so requests
+ * are kept in flight by working on several channels at once: directories are
+ * listed in parallel and their entries are handled in batches.
+ * <p>
+ * Symbolic links inside the tree are not followed. A failing path doesn't
+ * stop the others; the failures are reported together at the end.
+ */
+class RecursiveOperation {
+
+    /**
+     * The request to send for one path.
+     */
+    interface Action {
+        void apply(ChannelSftp sftp, String path) throws SftpException;
+    }
+
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+    private static final int BATCH_SIZE = 64;
+
+    private final SshClient client;
+    private final TaskGroup group;
+    private final List<String> failedPaths = new ArrayList<>();
+    private volatile Exception firstFailure;
+
+    private RecursiveOperation(SshClient client, String name, int concurrency) {
+        this.client = client;
+        this.group = new TaskGroup(name, concurrency, concurrency * QUEUE_SIZE_PER_WORKER);
+    }
+
+    /**
+     * Apply the action to a directory and everything below it, parents before
+     * their children, like {@code chmod -R}.
+     */
+    static void apply(SshClient client, final String root, int concurrency, final Action action) {
+        final RecursiveOperation op = new RecursiveOperation(client, "setstat", concurrency);
+        op.run(new Runnable() {
+            @Override
+            public void run() {
+                op.applyTree(root, action);
+            }
+        });
+    }
+
+    /**
+     * Remove a directory and everything below it, children before their
+     * parents, like {@code rm -r}.
+     */
+    static void delete(SshClient client, final String root, int concurrency) {
+        final RecursiveOperation op = new RecursiveOperation(client, "delete", concurrency);
+        op.run(new Runnable() {
+            @Override
+            public void run() {
+                op.deleteTree(new Dir(root, null));
+            }
+        });
+    }
+
+    private void run(Runnable start) {
+        try {
+            group.submit(start);
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+        if (firstFailure != null) {
+            throw new SshException("Failed on " + failedPaths.size() + " path(s), first "
+                    + failedPaths.get(0) + ": " + firstFailure.getMessage(), firstFailure);
+        }
+    }
+
+    private void applyTree(String dir, final Action action) {
+        List<String> files = new ArrayList<>();
+        List<String> dirs = new ArrayList<>();
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            action.apply(sftp, dir);
+            list(sftp, dir, files, dirs);
+        } catch (SftpException e) {
+            failed(dir, e);
+            return;
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        for (final String sub : dirs) {
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    applyTree(sub, action);
+                }
+            });
+        }
+        for (final List<String> batch : batches(files)) {
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    applyBatch(batch, action);
+                }
+            });
+        }
+    }
+
+    private void applyBatch(List<String> paths, Action action) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            for (String path : paths) {
+                try {
+                    action.apply(sftp, path);
+                } catch (SftpException e) {
+                    failed(path, e);
+                }
+            }
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private void deleteTree(final Dir dir) {
+        List<String> files = new ArrayList<>();
+        List<String> dirs = new ArrayList<>();
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            list(sftp, dir.path, files, dirs);
+        } catch (SftpException e) {
+            failed(dir.path, e);
+            // the directory can't be emptied, nor can its parents
+            return;
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        List<List<String>> batches = batches(files);
+        dir.pending.addAndGet(dirs.size() + batches.size());
+        for (String sub : dirs) {
+            final Dir child = new Dir(sub, dir);
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    deleteTree(child);
+                }
+            });
+        }
+        for (final List<String> batch : batches) {
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    deleteBatch(batch);
+                    done(dir);
+                }
+            });
+        }
+        // the listing itself
+        done(dir);
+    }
+
+    private void deleteBatch(List<String> paths) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            for (String path : paths) {
+                try {
+                    sftp.rm(SshClient.escapeGlob(path));
+                } catch (SftpException e) {
+                    failed(path, e);
+                }
+            }
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    /**
+     * One piece of a directory's contents is gone; remove the directory when
+     * everything is.
+     */
+    private void done(Dir dir) {
+        while (dir != null && dir.pending.decrementAndGet() == 0) {
+            ChannelSftp sftp = client.acquireSftpChannel();
+            try {
+                sftp.rmdir(SshClient.escapeGlob(dir.path));
+            } catch (SftpException e) {
+                failed(dir.path, e);
+            } finally {
+                client.releaseSftpChannel(sftp);
+            }
+            dir = dir.parent;
+        }
+    }
+
+    private static void list(ChannelSftp sftp, String dir, List<String> files, List<String> dirs)
+            throws SftpException {
+        Vector<?> entries = sftp.ls(SshClient.escapeGlob(dir));
+        for (Object o : entries) {
+            LsEntry entry = (LsEntry) o;
+            String name = entry.getFilename();
+            if (".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+            // listings report links themselves, so links to directories are files here
+            if (entry.getAttrs().isDir()) {
+                dirs.add(createPath(dir, name));
+            } else {
+                files.add(createPath(dir, name));
+            }
+        }
+    }
+
+    private static List<List<String>> batches(List<String> paths) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i += BATCH_SIZE) {
+            batches.add(paths.subList(i, Math.min(i + BATCH_SIZE, paths.size())));
+        }
+        return batches;
+    }
+
+    private void failed(String path, Exception e) {
+        synchronized (failedPaths) {
+            failedPaths.add(path);
+            if (firstFailure == null) {
+                firstFailure = e;
+            }
+        }
+    }
+
+    private static class Dir {
+        final String path;
+        final Dir parent;
+        // the listing, then every batch and subdirectory found by it
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        Dir(String path, Dir parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.github.huiyu.ssh4j.TransferCheckpoint.Direction;
+
+/**
+ * Single-file copies that continue a partial destination instead of starting
+ * over.
+ * <p>
+ * The transfer resumes at the size of the destination. Before that, the SHA-256
+ * digest of the partial destination is compared with that of as many bytes of
+ * the source, the remote one computed by {@code sha256sum} on the host, and a
+ * checkpoint, if there is one, must describe the same source version; if
+ * anything doesn't match, or the remote digest can't be had, the copy starts
+ * from zero. While copying, progress is
+ * recorded in the checkpoint file every {@link #CHECKPOINT_INTERVAL} bytes.
+ */
+class ResumableTransfer {
+
+    static final long CHECKPOINT_INTERVAL = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private ResumableTransfer() {
+    }
+
+    /**
+     * @param checkpointFile where to record progress, or null for none
+     * @return the number of bytes that were already at the destination
+     */
+    static long upload(SshClient client, ChannelSftp sftp, File local, String remote, File checkpointFile)
+            throws SftpException, IOException {
+        long size = local.length();
+        final TransferCheckpoint checkpoint = new TransferCheckpoint(Direction.UPLOAD,
+                local.getAbsolutePath(), remote, size, local.lastModified() / 1000, 0);
+
+        SftpATTRS attrs = SshClient.statIfExists(sftp, remote);
+        if (attrs != null && attrs.isDir()) {
+            throw new SshException("Remote destination '" + remote + "' is a directory");
+        }
+        long offset = attrs == null ? 0 : attrs.getSize();
+        if (offset > 0 && !(continues(checkpoint, checkpointFile, offset)
+                && samePrefix(client, remote, local, offset))) {
+            offset = 0;
+        }
+
+        if (offset < size) {
+            Progress progress = new Progress(checkpoint.withOffset(offset), checkpointFile);
+            try (InputStream in = new FileInputStream(local)) {
+                // RESUME skips the source up to the destination size itself
+                sftp.put(in, remote, progress, offset == 0 ? ChannelSftp.OVERWRITE : ChannelSftp.RESUME);
+            }
+        }
+
+        long written = sftp.stat(remote).getSize();
+        if (written != size) {
+            throw new SshException("Size mismatch after upload of " + local + ": " + written + " != " + size);
+        }
+        if (checkpointFile != null) {
+            checkpointFile.delete();
+        }
+        return offset;
+    }
+
+    /**
+     * @param checkpointFile where to record progress, or null for none
+     * @return the number of bytes that were already at the destination
+     */
+    static long download(SshClient client, ChannelSftp sftp, String remote, File local, File checkpointFile)
+            throws SftpException, IOException {
+        SftpATTRS attrs = sftp.stat(remote);
+        if (attrs.isDir()) {
+            throw new SshException(SshClient.MSG_NOT_A_FILE + remote);
+        }
+        if (local.isDirectory()) {
+            throw new SshException("Destination '" + local + "' is a directory.");
+        }
+        long size = attrs.getSize();
+        TransferCheckpoint checkpoint = new TransferCheckpoint(Direction.DOWNLOAD,
+                remote, local.getAbsolutePath(), size, attrs.getMTime(), 0);
+
+        long offset = local.length();
+        if (offset > 0 && !(continues(checkpoint, checkpointFile, offset)
+                && samePrefix(client, remote, local, offset))) {
+            offset = 0;
+        }
+
+        if (offset < size) {
+            Progress progress = new Progress(checkpoint.withOffset(offset), checkpointFile);
+            byte[] buf = new byte[BUFFER_SIZE];
+            try (InputStream in = sftp.get(remote, null, offset);
+                 OutputStream out = new FileOutputStream(local, offset > 0)) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                    progress.count(n);
+                }
+            }
+        }
+
+        if (local.length() != size) {
+            throw new SshException("Size mismatch after download of " + remote + ": " + local.length() + " != " + size);
+        }
+        if (checkpointFile != null) {
+            checkpointFile.delete();
+        }
+        return offset;
+    }
+
+    /**
+     * Whether a partial destination of the given size may be continued as far
+     * as the checkpoint tells.
+     */
+    private static boolean continues(TransferCheckpoint checkpoint, File checkpointFile, long offset) {
+        if (offset > checkpoint.getSourceSize()) {
+            return false;
+        }
+        if (checkpointFile == null || !checkpointFile.exists()) {
+            // nothing recorded, the destination is all there is to go by
+            return true;
+        }
+        return checkpoint.sameTransfer(TransferCheckpoint.load(checkpointFile));
+    }
+
+    /**
+     * Compare the digests of the first {@code offset} bytes of both files.
+     *
+     * @return false if they differ or the remote digest failed
+     */
+    static boolean samePrefix(SshClient client, String remote, File local, long offset) throws IOException {
+        ListenableFuture<ExecuteResult> remoteDigest = Checksums.startRemote(client, remote, 0, offset,
+                ChecksumAlgorithm.SHA256);
+        String localDigest;
+        try {
+            localDigest = Checksums.digest(local, offset, ChecksumAlgorithm.SHA256);
+        } catch (IOException | RuntimeException e) {
+            remoteDigest.cancel(true);
+            throw e;
+        }
+        try {
+            Checksums.check(remoteDigest, remote, "-", localDigest, ChecksumAlgorithm.SHA256);
+            return true;
+        } catch (SshException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Counts transferred bytes and records them in the checkpoint file.
+     */
+    private static class Progress implements SftpProgressMonitor {
+
+        private final File file;
+        private TransferCheckpoint checkpoint;
+        private long sinceSaved;
+
+        Progress(TransferCheckpoint checkpoint, File file) {
+            this.checkpoint = checkpoint;
+            this.file = file;
+            if (file != null) {
+                checkpoint.save(file);
+            }
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+        }
+
+        @Override
+        public boolean count(long count) {
+            sinceSaved += count;
+            if (sinceSaved >= CHECKPOINT_INTERVAL) {
+                checkpoint = checkpoint.withOffset(checkpoint.getOffset() + sinceSaved);
+                sinceSaved = 0;
+                if (file != null) {
+                    checkpoint.save(file);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelExec;
+
+import java.io.IOException;
+
+/**
+ * An exec channel whose command has been sent, with the sinks receiving its
+ * output.
+ */
+class RunningCommand {
+
+    final ChannelExec channel;
+    final ChannelSink out;
+    final ChannelSink err;
+    final CommandLatency latency;
+
+    RunningCommand(ChannelExec channel, ChannelSink out, ChannelSink err, CommandLatency latency) {
+        this.channel = channel;
+        this.out = out;
+        this.err = err;
+        this.latency = latency;
+    }
+
+    /**
+     * Wait for the channel to close. The server sends the exit status before
+     * closing, so it is known as soon as the error sink is closed.
+     */
+    int await() throws IOException, InterruptedException {
+        try {
+            err.await();
+        } catch (InterruptedException e) {
+            channel.disconnect();
+            throw e;
+        }
+        return finish();
+    }
+
+    /**
+     * Release the channel of a command whose error sink is closed.
+     *
+     * @return the exit code, or -1 if the command didn't report one
+     */
+    int finish() throws IOException {
+        latency.exited();
+        channel.disconnect();
+        out.checkFailure();
+        err.checkFailure();
+        return channel.getExitStatus();
+    }
+
+    void cancel() {
+        channel.disconnect();
+    }
+}
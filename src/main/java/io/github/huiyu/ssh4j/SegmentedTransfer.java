@@ -0,0 +1,298 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.huiyu.ssh4j.PathUtil.getParentPath;
+
+/**
+ * Single-file copies split into byte ranges that move at once, each over its
+ * own SFTP channel, so a large file isn't bound by the window and round trip
+ * time of one channel.
+ * <p>
+ * The ranges are written in place into a {@code .part} file next to the
+ * destination, given its final size up front: remotely by SFTP writes at the
+ * range's offset, locally by positional writes to one file channel. Once all
+ * ranges are complete, and with {@link TransferOptions#verify(ChecksumAlgorithm)}
+ * have the same digest on both sides, the part file is renamed to the
+ * destination; a failed copy deletes it. Range digests are computed while the
+ * bytes stream through locally and by {@code tail | head | sha256sum} on the
+ * host, so verifying takes no extra pass over the local file.
+ */
+class SegmentedTransfer {
+
+    static final String PART_SUFFIX = ".part";
+    // smaller ranges cost more in channel setup than they gain
+    static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final SshClient client;
+    private final TransferOptions options;
+
+    SegmentedTransfer(SshClient client, TransferOptions options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    void upload(final File src, String dst) {
+        final long size = src.length();
+        final String part = dst + PART_SUFFIX;
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            SftpATTRS attrs = SshClient.statIfExists(sftp, dst);
+            if (attrs != null && attrs.isDir()) {
+                throw new SshException("Remote destination '" + dst + "' is a directory");
+            }
+            if (attrs != null && !options.isOverwrite()) {
+                throw new SshException(SshClient.MSG_FILE_ALREADY_EXISTS + dst);
+            }
+            String parent = getParentPath(dst);
+            if (!parent.isEmpty()) {
+                SshClient.mkdirs(sftp, parent);
+            }
+            // one byte at the end gives the part file its size, which then never changes
+            try (OutputStream out = sftp.put(part, null, ChannelSftp.OVERWRITE, Math.max(0, size - 1))) {
+                if (size > 0) {
+                    out.write(0);
+                }
+            }
+        } catch (SftpException | IOException e) {
+            throw new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        try {
+            run("upload", size, new SegmentTask() {
+                @Override
+                public void run(long offset, long length) {
+                    uploadSegment(src, size, part, offset, length);
+                }
+            });
+            rename(part, dst, size);
+        } catch (RuntimeException e) {
+            deleteQuietly(part);
+            throw e;
+        }
+    }
+
+    /**
+     * @param size the size of the remote file
+     */
+    void download(final String src, long size, File dst) {
+        if (dst.isDirectory()) {
+            throw new SshException("Destination '" + dst + "' is a directory.");
+        }
+        if (dst.exists() && !options.isOverwrite()) {
+            throw new SshException(SshClient.MSG_FILE_ALREADY_EXISTS + dst);
+        }
+        File parent = dst.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        File part = new File(dst.getPath() + PART_SUFFIX);
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+                file.setLength(size);
+                final FileChannel channel = file.getChannel();
+                run("download", size, new SegmentTask() {
+                    @Override
+                    public void run(long offset, long length) {
+                        downloadSegment(src, channel, offset, length);
+                    }
+                });
+            }
+            if (part.length() != size) {
+                throw new SshException("Size mismatch for " + part + ": expected " + size + ", got " + part.length());
+            }
+            if (dst.exists() && !dst.delete()) {
+                throw new SshException("Failed to delete: " + dst);
+            }
+            if (!part.renameTo(dst)) {
+                throw new SshException("Failed to rename " + part + " to " + dst);
+            }
+        } catch (IOException e) {
+            part.delete();
+            throw new SshException(e);
+        } catch (RuntimeException e) {
+            part.delete();
+            throw e;
+        }
+    }
+
+    private void uploadSegment(File src, long size, String part, long offset, long length) {
+        ChecksumAlgorithm verify = options.getVerify();
+        MessageDigest digest = verify == null ? null : verify.newDigest();
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try (RandomAccessFile file = new RandomAccessFile(src, "r")) {
+            file.seek(offset);
+            // APPEND opens without truncating and adds the size of the file to the offset
+            try (OutputStream out = sftp.put(part, null, ChannelSftp.APPEND, offset - size)) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int n = file.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) {
+                        throw new SshException("File changed during copy: " + src);
+                    }
+                    if (digest != null) {
+                        digest.update(buf, 0, n);
+                    }
+                    out.write(buf, 0, n);
+                    remaining -= n;
+                }
+            }
+        } catch (SftpException | IOException e) {
+            throw new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        if (digest != null) {
+            // the range is complete only now, so its digest can't overlap the upload
+            Checksums.check(Checksums.startRemote(client, part, offset, length, verify),
+                    describe(part, offset, length), "-", Checksums.hex(digest), verify);
+        }
+    }
+
+    private void downloadSegment(String src, FileChannel channel, long offset, long length) {
+        ChecksumAlgorithm verify = options.getVerify();
+        // the host reads the range for its digest while we do
+        ListenableFuture<ExecuteResult> remoteDigest = verify == null ? null
+                : Checksums.startRemote(client, src, offset, length, verify);
+        MessageDigest digest = verify == null ? null : verify.newDigest();
+
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try (InputStream in = sftp.get(src, null, offset)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, end - position));
+                if (n < 0) {
+                    throw new SshException("File changed during copy: " + src);
+                }
+                if (digest != null) {
+                    digest.update(buf, 0, n);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buf, 0, n);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            }
+        } catch (SftpException | IOException | RuntimeException e) {
+            if (remoteDigest != null) {
+                remoteDigest.cancel(true);
+            }
+            throw e instanceof SshException ? (SshException) e : new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+
+        if (remoteDigest != null) {
+            Checksums.check(remoteDigest, describe(src, offset, length), "-", Checksums.hex(digest), verify);
+        }
+    }
+
+    /**
+     * Run a task per segment, as many at once as the concurrency allows.
+     *
+     * @throws SshException the first segment failure, the others cancelled
+     */
+    private void run(String name, long size, final SegmentTask task) {
+        List<long[]> segments = segments(size, options.getConcurrency());
+        TaskGroup group = new TaskGroup("segment-" + name, segments.size(), segments.size());
+        try {
+            for (final long[] segment : segments) {
+                group.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(segment[0], segment[1]);
+                    }
+                });
+            }
+            group.await();
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    private void rename(String part, String dst, long size) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            long actual = sftp.stat(part).getSize();
+            if (actual != size) {
+                throw new SshException("Size mismatch for " + part + ": expected " + size + ", got " + actual);
+            }
+            try {
+                // replaces the destination where the server supports posix-rename
+                sftp.rename(part, dst);
+            } catch (SftpException e) {
+                if (SshClient.statIfExists(sftp, dst) == null) {
+                    throw e;
+                }
+                sftp.rm(dst);
+                sftp.rename(part, dst);
+            }
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        ChannelSftp sftp = client.acquireSftpChannel();
+        try {
+            sftp.rm(path);
+        } catch (SftpException ignored) {
+        } finally {
+            client.releaseSftpChannel(sftp);
+        }
+    }
+
+    /**
+     * Split {@code size} bytes into at most {@code count} ranges of equal
+     * length, the last one shorter, none below {@link #MIN_SEGMENT_SIZE}
+     * unless the file is.
+     *
+     * @return offset and length of each range
+     */
+    static List<long[]> segments(long size, int count) {
+        long max = Math.max(1, (size + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE);
+        int n = (int) Math.min(count, max);
+        long length = Math.max(1, (size + n - 1) / n);
+        List<long[]> segments = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += length) {
+            segments.add(new long[]{offset, Math.min(length, size - offset)});
+        }
+        if (segments.isEmpty()) {
+            segments.add(new long[]{0, 0});
+        }
+        return segments;
+    }
+
+    private static String describe(String path, long offset, long length) {
+        return path + " [" + offset + ", " + (offset + length) + ")";
+    }
+
+    private interface SegmentTask {
+        void run(long offset, long length);
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Bounded set of SFTP channels on one session. Each channel is used by one
+ * thread at a time, so file operations from different threads run in parallel
+ * on separate request streams.
+ * <p>
+ * The bound starts at the configured maximum and is lowered to the number of
+ * channels actually open when the server refuses a new one (OpenSSH limits
+ * channels per connection with {@code MaxSessions}).
+ */
+class SftpChannelPool {
+
+    /**
+     * Opens a connected SFTP channel on the current session.
+     */
+    interface ChannelFactory {
+        ChannelSftp open();
+    }
+
+    private final ChannelFactory factory;
+
+    private final Deque<ChannelSftp> idle = new ArrayDeque<>();
+    private final int configuredMaxChannels;
+    private int maxChannels;
+    // idle + busy + being opened
+    private int open;
+    private int busy;
+    private int peakBusy;
+
+    private long acquisitions;
+    private long waits;
+    private long waitTimeNanos;
+
+    SftpChannelPool(ChannelFactory factory, int maxChannels) {
+        if (maxChannels <= 0) {
+            throw new IllegalArgumentException("Max channels must be positive.");
+        }
+        this.factory = factory;
+        this.configuredMaxChannels = maxChannels;
+        this.maxChannels = maxChannels;
+    }
+
+    ChannelSftp acquire() {
+        // when the caller started waiting, kept across refused opens
+        long start = 0;
+        while (true) {
+            synchronized (this) {
+                while (true) {
+                    ChannelSftp ch = idle.pollFirst();
+                    if (ch != null) {
+                        if (ch.isClosed() || !ch.isConnected()) {
+                            open--;
+                            continue;
+                        }
+                        return lent(ch, start);
+                    }
+                    if (open < maxChannels) {
+                        open++;
+                        break;
+                    }
+                    if (start == 0) {
+                        start = System.nanoTime();
+                        waits++;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SshException(e);
+                    }
+                }
+            }
+
+            ChannelSftp ch;
+            try {
+                ch = factory.open();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    open--;
+                    notifyAll();
+                    if (open == 0) {
+                        throw e;
+                    }
+                    // server refused another channel, settle for what we have
+                    maxChannels = open;
+                }
+                continue;
+            }
+            synchronized (this) {
+                return lent(ch, start);
+            }
+        }
+    }
+
+    private ChannelSftp lent(ChannelSftp ch, long waitStart) {
+        acquisitions++;
+        busy++;
+        if (busy > peakBusy) {
+            peakBusy = busy;
+        }
+        if (waitStart != 0) {
+            waitTimeNanos += System.nanoTime() - waitStart;
+        }
+        return ch;
+    }
+
+    synchronized void release(ChannelSftp ch) {
+        busy--;
+        if (ch.isClosed() || !ch.isConnected()) {
+            open--;
+        } else {
+            idle.addFirst(ch);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Disconnect all idle channels and reset the channel limit, e.g. after the
+     * session was replaced. Busy channels are dropped when they are released.
+     */
+    void clear() {
+        List<ChannelSftp> channels;
+        synchronized (this) {
+            channels = new ArrayList<>(idle);
+            open -= idle.size();
+            idle.clear();
+            maxChannels = configuredMaxChannels;
+            notifyAll();
+        }
+        for (ChannelSftp ch : channels) {
+            ch.disconnect();
+        }
+    }
+
+    synchronized ChannelPoolStats stats() {
+        return new ChannelPoolStats(maxChannels, open, busy, peakBusy, acquisitions, waits, waitTimeNanos);
+    }
+
+    /**
+     * Wrap a stream opened on the channel so that the channel goes back to the
+     * pool when the stream is closed.
+     */
+    InputStream releaseOnClose(final ChannelSftp ch, InputStream in) {
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    release(ch);
+                }
+            }
+        };
+    }
+
+    OutputStream releaseOnClose(final ChannelSftp ch, OutputStream out) {
+        return new FilterOutputStream(out) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    out.close();
+                } finally {
+                    release(ch);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,378 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.jcraft.jsch.ChannelShell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * One remote shell kept open to run commands one after another, without
+ * starting a process and sourcing profiles for each.
+ * <p>
+ * Every command is followed by a marker line on stdout carrying its exit code
+ * and one on stderr, unique to the shell; output up to the markers belongs to
+ * the command. Commands can be submitted without waiting for earlier ones
+ * to complete, they are written to the shell right away and complete in
+ * order.
+ * <p>
+ * Commands share the shell's state: a {@code cd} or variable assignment is
+ * seen by later commands. They read stdin from {@code /dev/null}. A command
+ * that exits the shell fails itself and every command after it. The login
+ * shell must be POSIX compatible (sh, bash, ksh, zsh).
+ */
+public class ShellSession implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SshClient client;
+    private final ChannelShell channel;
+    private final OutputStream stdin;
+    private final String token;
+    private final CommandOutput out;
+    private final CommandOutput err;
+
+    private boolean closed;
+
+    ShellSession(SshClient client, ChannelShell channel) throws IOException {
+        this.client = client;
+        this.channel = channel;
+        this.token = "--ssh4j-" + Long.toHexString(RANDOM.nextLong()) + Long.toHexString(RANDOM.nextLong()) + "--";
+        this.out = new CommandOutput(("\n" + token + " ").getBytes(UTF_8), true);
+        this.err = new CommandOutput(("\n" + token + "\n").getBytes(UTF_8), false);
+        channel.setPty(false);
+        channel.setOutputStream(out, false);
+        channel.setExtOutputStream(err, false);
+        this.stdin = channel.getOutputStream();
+    }
+
+    /**
+     * Run setup commands (e.g. sourcing files) whose output is discarded. A
+     * setup frame is run even without any, so that what the login profiles
+     * print goes with it rather than with the first command.
+     */
+    void init(String commands) {
+        submit(new CommandFuture<Integer>(commands.isEmpty() ? "true" : commands, null, null) {
+            @Override
+            Integer result(int exitCode) {
+                return exitCode;
+            }
+        });
+    }
+
+    /**
+     * Queue a command and return without waiting for it.
+     */
+    public ListenableFuture<ExecuteResult> submit(String command) {
+        final CaptureOutputStream capturedOut = client.newCapture();
+        final CaptureOutputStream capturedErr = client.newCapture();
+        return submit(new CommandFuture<ExecuteResult>(command, capturedOut, capturedErr) {
+            @Override
+            ExecuteResult result(int exitCode) {
+                return SshClient.result(capturedOut, capturedErr, exitCode, latency);
+            }
+        });
+    }
+
+    /**
+     * Queue a command copying its output to the given streams (either may be
+     * null to discard it), which are written by the session's transport thread:
+     * they should not block, and must not call the client. Cancelling the future stops waiting for the command but doesn't stop it.
+     */
+    public ListenableFuture<Integer> submit(String command, OutputStream stdout, OutputStream stderr) {
+        return submit(new CommandFuture<Integer>(command, stdout, stderr) {
+            @Override
+            Integer result(int exitCode) {
+                return exitCode;
+            }
+        });
+    }
+
+    public ExecuteResult execute(String command) {
+        return get(submit(command));
+    }
+
+    /**
+     * Run a command and wait for it, the streams written as for
+     * {@link #submit(String, OutputStream, OutputStream)}; see
+     * {@link SshClient#execute(String[], OutputStream, OutputStream)} for
+     * streams written by the calling thread.
+     */
+    public int execute(String command, OutputStream stdout, OutputStream stderr) {
+        return get(submit(command, stdout, stderr));
+    }
+
+    public synchronized boolean isOpen() {
+        return !closed && channel.isConnected();
+    }
+
+    @Override
+    public void close() {
+        channel.disconnect();
+    }
+
+    private <V> CommandFuture<V> submit(CommandFuture<V> future) {
+        Frame frame = new Frame(future);
+        byte[] script = script(future.command).getBytes(UTF_8);
+        // writes wait for window space, which the transport thread may only
+        // grant after delivering output, so they don't hold the frame lock
+        synchronized (stdin) {
+            synchronized (this) {
+                if (closed) {
+                    throw new SshException("Shell is closed.");
+                }
+                out.frames.addLast(frame);
+                err.frames.addLast(frame);
+            }
+            try {
+                stdin.write(script);
+                stdin.flush();
+            } catch (IOException e) {
+                close();
+                future.failed(new SshException(e));
+                return future;
+            }
+        }
+        future.latency.opened();
+        return future;
+    }
+
+    /**
+     * The command followed by its markers. It is evaluated from a quoted
+     * string, so that a syntax error is an error of the command rather than
+     * of the script the shell is reading.
+     */
+    private String script(String command) {
+        return "eval '" + command.replace("'", "'\\''") + "' </dev/null\n"
+                + "printf '\\n%s %d\\n' '" + token + "' \"$?\"; printf '\\n%s\\n' '" + token + "' >&2\n";
+    }
+
+    static <V> V get(ListenableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SshException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof SshException ? (SshException) cause : new SshException(cause);
+        }
+    }
+
+    private void completed(final Frame frame) {
+        client.asyncExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                CommandFuture<?> future = frame.future;
+                future.latency.exited();
+                try {
+                    if (frame.failure != null) {
+                        throw frame.failure;
+                    }
+                    client.getCommandStats().record(future.latency);
+                    future.completed(frame.exitCode);
+                } catch (Throwable t) {
+                    future.failed(t instanceof SshException ? t : new SshException(t));
+                }
+            }
+        });
+    }
+
+    /**
+     * The channel closed, fail what is still waiting.
+     */
+    private void closed() {
+        List<Frame> pending;
+        synchronized (this) {
+            closed = true;
+            pending = new ArrayList<>(out.frames);
+            pending.addAll(err.frames);
+            out.frames.clear();
+            err.frames.clear();
+        }
+        for (Frame frame : pending) {
+            frame.future.failed(new SshException("Shell closed before the command completed."));
+        }
+    }
+
+    private static class Frame {
+        final CommandFuture<?> future;
+        volatile int exitCode = -1;
+        volatile IOException failure;
+        // streams whose marker hasn't been seen yet
+        int pendingStreams = 2;
+
+        Frame(CommandFuture<?> future) {
+            this.future = future;
+        }
+    }
+
+    /**
+     * Splits one output stream of the shell at the markers, passing the data
+     * in between and the end of each frame on.
+     */
+    abstract static class FrameParser extends OutputStream {
+
+        private final byte[] marker;
+        private final boolean withExitCode;
+        // marker bytes matched so far, held back from the frame's data
+        private int matched;
+        private boolean readingExitCode;
+        private int exitCode;
+
+        /**
+         * @param marker       starting with its only newline
+         * @param withExitCode whether the marker is followed by an exit code
+         *                     and a newline
+         */
+        FrameParser(byte[] marker, boolean withExitCode) {
+            this.marker = marker;
+            this.withExitCode = withExitCode;
+        }
+
+        /**
+         * Data of the current frame, never empty.
+         */
+        abstract void data(byte[] b, int off, int len);
+
+        /**
+         * The current frame ended, with its exit code or -1 if the marker
+         * carries none.
+         */
+        abstract void endFrame(int exitCode);
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int end = off + len;
+            int run = off;
+            for (int i = off; i < end; i++) {
+                byte c = b[i];
+                if (readingExitCode) {
+                    if (c == '\n') {
+                        readingExitCode = false;
+                        endFrame(exitCode);
+                        run = i + 1;
+                    } else if (c >= '0' && c <= '9') {
+                        exitCode = exitCode * 10 + (c - '0');
+                    }
+                    continue;
+                }
+                if (c == marker[matched]) {
+                    if (matched == 0) {
+                        pass(b, run, i - run);
+                    }
+                    matched++;
+                    run = i + 1;
+                    if (matched == marker.length) {
+                        matched = 0;
+                        if (withExitCode) {
+                            readingExitCode = true;
+                            exitCode = 0;
+                        } else {
+                            endFrame(-1);
+                        }
+                    }
+                } else if (matched > 0) {
+                    // not a marker after all, the held back bytes are data
+                    pass(marker, 0, matched);
+                    // the marker starts with its only newline, so c can only restart a match
+                    matched = c == marker[0] ? 1 : 0;
+                    run = matched == 1 ? i + 1 : i;
+                }
+            }
+            if (matched == 0 && !readingExitCode) {
+                pass(b, run, end - run);
+            }
+        }
+
+        private void pass(byte[] b, int off, int len) {
+            if (len > 0) {
+                data(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    /**
+     * One output stream of the shell, its frames passed to the streams of the
+     * commands in turn.
+     */
+    private class CommandOutput extends FrameParser {
+
+        final Deque<Frame> frames = new ArrayDeque<>();
+
+        private final boolean stdout;
+
+        CommandOutput(byte[] marker, boolean stdout) {
+            super(marker, stdout);
+            this.stdout = stdout;
+        }
+
+        @Override
+        void data(byte[] b, int off, int len) {
+            Frame frame;
+            synchronized (ShellSession.this) {
+                frame = frames.peekFirst();
+            }
+            if (frame == null) {
+                return;
+            }
+            OutputStream target = stdout ? frame.future.stdout : frame.future.stderr;
+            frame.future.latency.firstByte();
+            if (target == null || frame.failure != null) {
+                return;
+            }
+            try {
+                target.write(b, off, len);
+            } catch (IOException e) {
+                // keep the stream in step with the markers, fail the command alone
+                frame.failure = e;
+            }
+        }
+
+        @Override
+        void endFrame(int code) {
+            Frame frame;
+            boolean done;
+            synchronized (ShellSession.this) {
+                frame = frames.pollFirst();
+                if (frame == null) {
+                    return;
+                }
+                if (stdout) {
+                    frame.exitCode = code;
+                }
+                done = --frame.pendingStreams == 0;
+            }
+            if (done) {
+                completed(frame);
+            }
+        }
+
+        @Override
+        public void close() {
+            // stdout is closed at the remote EOF, the error stream with the channel
+            if (!stdout) {
+                closed();
+            }
+        }
+    }
+}
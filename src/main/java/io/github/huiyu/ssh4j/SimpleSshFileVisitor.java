@@ -0,0 +1,22 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * A visitor that visits everything and ignores failures.
+ */
+public class SimpleSshFileVisitor implements SshFileVisitor {
+
+    @Override
+    public VisitResult preVisitDirectory(SshFile dir) {
+        return VisitResult.CONTINUE;
+    }
+
+    @Override
+    public VisitResult visitFile(SshFile file) {
+        return VisitResult.CONTINUE;
+    }
+
+    @Override
+    public VisitResult visitFileFailed(String path, SshException e) {
+        return VisitResult.CONTINUE;
+    }
+}
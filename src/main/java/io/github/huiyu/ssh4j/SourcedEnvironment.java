@@ -0,0 +1,265 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The environment the source files of a client leave behind, captured once
+ * and replayed in front of each command as exports.
+ * <p>
+ * One command prints the environment and the shell variables, sources the
+ * files and prints both again; the variables the files set, changed or
+ * removed make up the replay. Variables the files set without exporting them
+ * are replayed as plain assignments, so like after sourcing the command's
+ * shell sees them and its children don't; of an array only the first element
+ * is kept. Functions the files define or change are replayed as their
+ * {@code declare -f} definitions. Shell variables and functions are listed
+ * with bash's {@code compgen}; where it is missing only exported variables are
+ * replayed, and if {@code typeset -f} shows the files changed functions,
+ * commands source the files as before. Aliases are not captured. If the
+ * capture fails (e.g. no {@code env -0} on the host) commands source the
+ * files too.
+ */
+class SourcedEnvironment {
+
+    static final String SEPARATOR = "--ssh4j-env--";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    // set by the shell for each process, not by the files
+    private static final String[] IGNORED = {"_", "SHLVL", "PWD", "OLDPWD"};
+
+    // set by bash as it runs, read-only or arrays; on top of the above
+    private static final String[] SHELL_IGNORED = {
+            "BASHOPTS", "BASHPID", "BASH_ALIASES", "BASH_ARGC", "BASH_ARGV", "BASH_ARGV0", "BASH_CMDS",
+            "BASH_COMMAND", "BASH_EXECUTION_STRING", "BASH_LINENO", "BASH_REMATCH", "BASH_SOURCE",
+            "BASH_SUBSHELL", "BASH_VERSINFO", "DIRSTACK", "EPOCHREALTIME", "EPOCHSECONDS", "EUID", "FUNCNAME", "GROUPS", "HISTCMD", "LINENO",
+            "OPTIND", "PIPESTATUS", "PPID", "RANDOM", "SECONDS", "SHELLOPTS", "SRANDOM", "UID"
+    };
+
+    private static final String LOOP_VARIABLE = "__ssh4j_name";
+
+    // prints name=value\0 for each shell variable
+    private static final String PRINT_SHELL_VARIABLES = "for " + LOOP_VARIABLE + " in $(compgen -v 2>/dev/null);"
+            + " do printf '%s=%s\\0' \"$" + LOOP_VARIABLE + "\" \"${!" + LOOP_VARIABLE + "}\"; done";
+
+    // where compgen is missing, all function definitions at once under this name
+    private static final String ALL_FUNCTIONS = "*";
+
+    // prints name=definition\0 for each function
+    private static final String PRINT_FUNCTIONS = "if command -v compgen >/dev/null 2>&1; then for "
+            + LOOP_VARIABLE + " in $(compgen -A function); do printf '%s=%s\\0' \"$" + LOOP_VARIABLE
+            + "\" \"$(declare -f \"$" + LOOP_VARIABLE + "\")\"; done;"
+            + " else printf '%s=%s\\0' '" + ALL_FUNCTIONS + "' \"$(typeset -f 2>/dev/null)\"; fi";
+
+    private final SshClient client;
+    private final List<String> sourceFiles;
+
+    private volatile String prefix;
+
+    SourcedEnvironment(SshClient client, List<String> sourceFiles) {
+        this.client = client;
+        this.sourceFiles = sourceFiles;
+    }
+
+    /**
+     * @return the commands to put in front of a command, each ending with a
+     * newline
+     */
+    String prefix() {
+        String p = prefix;
+        if (p == null) {
+            synchronized (this) {
+                p = prefix;
+                if (p == null) {
+                    p = capture();
+                    prefix = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Capture the environment again, e.g. after the source files changed.
+     */
+    synchronized void refresh() {
+        prefix = capture();
+    }
+
+    /**
+     * Forget the environment, it is captured again before the next command.
+     */
+    void invalidate() {
+        prefix = null;
+    }
+
+    private String capture() {
+        if (sourceFiles.isEmpty()) {
+            return "";
+        }
+        String separator = "printf '%s\\0' '" + SEPARATOR + "'";
+        // a file ending with a failing command still counts as sourced
+        String print = "env -0 && " + separator + " && " + PRINT_SHELL_VARIABLES + "; " + separator + " && "
+                + PRINT_FUNCTIONS;
+        StringBuilder command = new StringBuilder(print).append("; ").append(separator).append(" && {");
+        for (String file : sourceFiles) {
+            command.append(" source ").append(file).append(";");
+        }
+        command.append(" } </dev/null >/dev/null 2>&1; ").append(print);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = client.executeRaw(command.toString(), out, null);
+        List<Map<String, String>> sections = parseSections(out.toString());
+        if (exitCode != 0 || sections.size() != 6) {
+            return sourceCommands(sourceFiles);
+        }
+        String functions = replayFunctions(sections.get(2), sections.get(5));
+        if (functions == null) {
+            return sourceCommands(sourceFiles);
+        }
+        return replay(sections.get(0), sections.get(3))
+                + replayShell(sections.get(1), sections.get(4), sections.get(3))
+                + functions;
+    }
+
+    /**
+     * Parse {@code env -0} output.
+     */
+    static Map<String, String> parse(String output) {
+        Map<String, String> env = new LinkedHashMap<>();
+        for (String entry : output.split("\0")) {
+            put(env, entry);
+        }
+        return env;
+    }
+
+    /**
+     * Parse NUL separated {@code name=value} entries, a new section starting
+     * after each {@link #SEPARATOR}.
+     */
+    static List<Map<String, String>> parseSections(String output) {
+        List<Map<String, String>> sections = new ArrayList<>();
+        Map<String, String> section = new LinkedHashMap<>();
+        for (String entry : output.split("\0")) {
+            if (entry.equals(SEPARATOR)) {
+                sections.add(section);
+                section = new LinkedHashMap<>();
+            } else {
+                put(section, entry);
+            }
+        }
+        sections.add(section);
+        return sections;
+    }
+
+    private static void put(Map<String, String> variables, String entry) {
+        int eq = entry.indexOf('=');
+        if (eq > 0) {
+            variables.put(entry.substring(0, eq), entry.substring(eq + 1));
+        }
+    }
+
+    /**
+     * Commands turning the {@code before} environment into {@code after}.
+     */
+    static String replay(Map<String, String> before, Map<String, String> after) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            String name = e.getKey();
+            if (replayable(name) && !e.getValue().equals(before.get(name))) {
+                builder.append("export ").append(name).append('=').append(quote(e.getValue())).append(" \n ");
+            }
+        }
+        for (String name : before.keySet()) {
+            if (replayable(name) && !after.containsKey(name)) {
+                builder.append("unset ").append(name).append(" \n ");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Commands turning the shell variables {@code before} into {@code after},
+     * leaving out the exported ones {@link #replay(Map, Map)} takes care of.
+     *
+     * @param env the environment after sourcing
+     */
+    static String replayShell(Map<String, String> before, Map<String, String> after, Map<String, String> env) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            String name = e.getKey();
+            if (!env.containsKey(name) && replayableShell(name) && !e.getValue().equals(before.get(name))) {
+                builder.append(name).append('=').append(quote(e.getValue())).append(" \n ");
+            }
+        }
+        for (String name : before.keySet()) {
+            if (!env.containsKey(name) && replayableShell(name) && !after.containsKey(name)) {
+                builder.append("unset ").append(name).append(" \n ");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Commands turning the functions {@code before} into {@code after}.
+     *
+     * @return null if the functions changed but are only known all at once
+     */
+    static String replayFunctions(Map<String, String> before, Map<String, String> after) {
+        String all = after.get(ALL_FUNCTIONS);
+        if (all != null) {
+            return all.equals(before.get(ALL_FUNCTIONS)) ? "" : null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!e.getValue().equals(before.get(e.getKey()))) {
+                builder.append(e.getValue()).append(" \n ");
+            }
+        }
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                builder.append("unset -f ").append(name).append(" \n ");
+            }
+        }
+        return builder.toString();
+    }
+
+    static String sourceCommands(List<String> sourceFiles) {
+        StringBuilder builder = new StringBuilder();
+        for (String file : sourceFiles) {
+            builder.append("source ").append(file).append(" \n ");
+        }
+        return builder.toString();
+    }
+
+    private static boolean replayable(String name) {
+        for (String ignored : IGNORED) {
+            if (ignored.equals(name)) {
+                return false;
+            }
+        }
+        // e.g. exported bash functions, which can't be assigned
+        return NAME.matcher(name).matches();
+    }
+
+    private static boolean replayableShell(String name) {
+        if (name.equals(LOOP_VARIABLE)) {
+            return false;
+        }
+        for (String ignored : SHELL_IGNORED) {
+            if (ignored.equals(name)) {
+                return false;
+            }
+        }
+        return replayable(name);
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
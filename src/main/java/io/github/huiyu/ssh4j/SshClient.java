@@ -1,10 +1,14 @@
 package io.github.huiyu.ssh4j;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelShell;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
@@ -12,39 +16,56 @@ import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 import static io.github.huiyu.ssh4j.PathUtil.createPath;
+import static io.github.huiyu.ssh4j.SourcedEnvironment.quote;
 
 public class SshClient implements Closeable {
 
     private static final int KEEP_ALIVE_INTERVAL = 1000 * 5;
-
-    private static final String MSG_FILE_NOT_FOUND = "File not found: ";
-    private static final String MSG_FILE_ALREADY_EXISTS = "File already exists: ";
-    private static final String MSG_NOT_A_FILE = "Not a file: ";
-    private static final String MSG_NOT_A_DIRECTORY = "Not a directory: ";
+    private static final int KEEP_ALIVE_COUNT_MAX = 3;
+    private static final int DEFAULT_MAX_SFTP_CHANNELS = 8;
+    private static final int DEFAULT_MAX_CONCURRENT_COMMANDS = 8;
+    private static final int DEFAULT_ASYNC_THREADS = 2;
+    private static final long DEFAULT_IDENTITY_CACHE_TTL = TimeUnit.MINUTES.toMillis(10);
+    // output of a blocking execute waiting for the caller's streams
+    private static final int PUMP_CAPACITY = 1024 * 1024;
+
+    static final String MSG_FILE_NOT_FOUND = "File not found: ";
+    static final String MSG_FILE_ALREADY_EXISTS = "File already exists: ";
+    static final String MSG_NOT_A_FILE = "Not a file: ";
+    static final String MSG_NOT_A_DIRECTORY = "Not a directory: ";
 
     private static final String CHANNEL_SFTP = "sftp";
     private static final String CHANNEL_EXEC = "exec";
+    private static final String CHANNEL_SHELL = "shell";
 
     private static final String SLASH = "/";
 
+    private static final Constructor<SftpATTRS> EMPTY_ATTRIBUTES = emptyAttributesConstructor();
+
     private String username;
     private String host;
     private int port;
@@ -55,12 +76,25 @@ public class SshClient implements Closeable {
     private volatile String homePath;
 
     private Session session;
-    private ChannelSftp sftpChannel;
+    private SftpChannelPool sftpChannels;
+    private int maxSftpChannels;
+    private int outputBufferSize;
+    private IdentityCache identities;
+    private AsyncExecutor async;
+    private int captureHeadBytes;
+    private int captureTailBytes;
+    private boolean persistentShell;
+    private ShellSession shell;
+    private SourcedEnvironment environment;
+    private MetadataCache metadata;
 
     private Map<String, String> configs;
 
     private List<String> sourceFiles;
 
+    private final ConnectionStats connectionStats = new ConnectionStats();
+    private final CommandStats commandStats = new CommandStats();
+
     private SshClient() {
     }
 
@@ -77,65 +111,332 @@ public class SshClient implements Closeable {
     }
 
     public ExecuteResult execute(String[] commands) {
-        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
-        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
-        int exitCode = this.execute(commands, stdout, stderr);
-        return new ExecuteResult(stdout.toString(), stderr.toString(), exitCode);
+        return this.execute(commands, captureHeadBytes, captureTailBytes);
+    }
+
+    /**
+     * Execute commands keeping at most the first {@code headBytes} and the
+     * last {@code tailBytes} of each output stream; the bytes in between are
+     * counted in {@link ExecuteResult#outDropped} and
+     * {@link ExecuteResult#errDropped}.
+     */
+    public ExecuteResult execute(String[] commands, int headBytes, int tailBytes) {
+        CaptureOutputStream stdout = new CaptureOutputStream(headBytes, tailBytes);
+        CaptureOutputStream stderr = new CaptureOutputStream(headBytes, tailBytes);
+        CommandLatency latency = new CommandLatency();
+        int exitCode = this.execute(commands, stdout, stderr, latency);
+        return result(stdout, stderr, exitCode, latency);
+    }
+
+    /**
+     * Execute a command keeping all of its output whatever the configured
+     * capture limit, for output the client parses itself: a cut table would
+     * parse into wrong entries.
+     */
+    ExecuteResult executeFully(String command) {
+        return execute(new String[]{command}, CaptureOutputStream.UNLIMITED, 0);
+    }
+
+    /**
+     * Like {@link #executeFully(String)}, without blocking the calling thread.
+     */
+    ListenableFuture<ExecuteResult> executeFullyAsync(String command) {
+        return executeAsync(new String[]{command}, CaptureOutputStream.UNLIMITED, 0);
+    }
+
+    /**
+     * A capture stream with the configured limits.
+     */
+    CaptureOutputStream newCapture() {
+        return new CaptureOutputStream(captureHeadBytes, captureTailBytes);
+    }
+
+    static ExecuteResult result(CaptureOutputStream stdout, CaptureOutputStream stderr,
+                                        int exitCode, CommandLatency latency) {
+        return new ExecuteResult(stdout.toString(), stderr.toString(), exitCode, latency,
+                stdout.getDropped(), stderr.getDropped());
     }
 
+    /**
+     * @see #execute(String[], OutputStream, OutputStream)
+     */
     public int execute(String command, OutputStream stdout, OutputStream stderr) {
         String[] commands = {command};
         return this.execute(commands, stdout, stderr);
     }
 
+    /**
+     * Execute commands, copying their output to the given streams (either may
+     * be null to discard it).
+     * <p>
+     * The streams are written by the calling thread, so they may be slow or
+     * use this client. Up to 1 MB of output waits for them; beyond that the
+     * session stops reading, holding up its other channels too. A stream that
+     * waits for this client (e.g. runs a command) while that much output is
+     * pending deadlocks.
+     *
+     * @return the exit code, or -1 if the command didn't report one (e.g. it
+     * was killed by a signal)
+     */
     public int execute(String[] commands, OutputStream stdout, OutputStream stderr) {
+        OutputPump pump = new OutputPump(PUMP_CAPACITY);
+        if (persistentShell) {
+            ListenableFuture<Integer> future = shell().submit(joinCommands(commands),
+                    pump.stream(stdout), pump.stream(stderr));
+            future.addListener(ender(pump), MoreExecutors.directExecutor());
+            try {
+                pump.drain();
+            } catch (Exception e) {
+                future.cancel(true);
+                throw drainFailure(e);
+            }
+            return ShellSession.get(future);
+        }
+
+        CommandLatency latency = new CommandLatency();
         try {
-            ChannelExec ch = (ChannelExec) getSession().openChannel(CHANNEL_EXEC);
+            RunningCommand cmd = startCommand(buildCommand(commands), pump.stream(stdout), pump.stream(stderr),
+                    latency);
+            cmd.err.whenClosed(ender(pump));
+            try {
+                pump.drain();
+            } catch (Exception e) {
+                cmd.cancel();
+                throw drainFailure(e);
+            }
+            int exitCode = cmd.await();
+            commandStats.record(latency);
+            return exitCode;
+        } catch (SshException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SshException(e);
+        }
+    }
+
+    private static Runnable ender(final OutputPump pump) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                pump.end();
+            }
+        };
+    }
+
+    private static SshException drainFailure(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        return e instanceof SshException ? (SshException) e : new SshException(e);
+    }
+
+    /**
+     * @see #execute(String[], LineHandler, LineHandler)
+     */
+    public int execute(String command, LineHandler stdout, LineHandler stderr) {
+        String[] commands = {command};
+        return this.execute(commands, stdout, stderr);
+    }
+
+    /**
+     * Execute commands, handing their output over line by line as it arrives
+     * instead of collecting it (either handler may be null to discard it).
+     * Output is decoded with the platform charset; for another charset pass
+     * {@link LineOutputStream}s to {@link #execute(String[], OutputStream, OutputStream)}.
+     * Handlers run on the calling thread, under the same rules as the streams
+     * of that method.
+     *
+     * @return the exit code, or -1 if the command didn't report one
+     */
+    public int execute(String[] commands, LineHandler stdout, LineHandler stderr) {
+        LineOutputStream out = stdout == null ? null : new LineOutputStream(stdout);
+        LineOutputStream err = stderr == null ? null : new LineOutputStream(stderr);
+        int exitCode = this.execute(commands, out, err);
+        // hand over unterminated last lines
+        if (out != null) {
+            out.close();
+        }
+        if (err != null) {
+            err.close();
+        }
+        return exitCode;
+    }
+
+    private int execute(String[] commands, OutputStream stdout, OutputStream stderr, CommandLatency latency) {
+        if (persistentShell) {
+            return shell().execute(joinCommands(commands), stdout, stderr);
+        }
+        return run(buildCommand(commands), stdout, stderr, latency);
+    }
+
+    /**
+     * Execute a command as is, without the source files.
+     */
+    int executeRaw(String command, OutputStream stdout, OutputStream stderr) {
+        return run(command, stdout, stderr, new CommandLatency());
+    }
 
-            String command = buildCommand(commands);
+    private int run(String command, OutputStream stdout, OutputStream stderr, CommandLatency latency) {
+        try {
+            RunningCommand cmd = startCommand(command, stdout, stderr, latency);
+            int exitCode = cmd.await();
+            commandStats.record(latency);
+            return exitCode;
+        } catch (Exception e) {
+            throw new SshException(e);
+        }
+    }
+
+    /**
+     * Execute a command without blocking the calling thread.
+     *
+     * @see #executeAsync(String[], OutputStream, OutputStream)
+     */
+    public ListenableFuture<ExecuteResult> executeAsync(String command) {
+        return this.executeAsync(new String[]{command});
+    }
+
+    /**
+     * Execute commands without blocking the calling thread.
+     *
+     * @see #executeAsync(String[], OutputStream, OutputStream)
+     */
+    public ListenableFuture<ExecuteResult> executeAsync(String[] commands) {
+        return executeAsync(commands, captureHeadBytes, captureTailBytes);
+    }
+
+    private ListenableFuture<ExecuteResult> executeAsync(String[] commands, int headBytes, int tailBytes) {
+        final CaptureOutputStream out = new CaptureOutputStream(headBytes, tailBytes);
+        final CaptureOutputStream err = new CaptureOutputStream(headBytes, tailBytes);
+        return async.submit(new CommandFuture<ExecuteResult>(buildCommand(commands), out, err) {
+            @Override
+            ExecuteResult result(int exitCode) {
+                return SshClient.result(out, err, exitCode, latency);
+            }
+        });
+    }
+
+    /**
+     * Execute commands without blocking the calling thread. Commands share the
+     * session, each on its own exec channel; beyond
+     * {@link Builder#maxConcurrentCommands(int)} they queue in submission order.
+     * <p>
+     * The output streams are written by the session's transport thread: they
+     * should not block, and must not call this client, which would wait for
+     * the thread they hold. Cancelling the future closes the channel; commands not
+     * started yet are dropped from the queue.
+     *
+     * @return the exit code, or -1 if the command didn't report one
+     */
+    public ListenableFuture<Integer> executeAsync(String[] commands, OutputStream stdout, OutputStream stderr) {
+        return async.submit(new CommandFuture<Integer>(buildCommand(commands), stdout, stderr) {
+            @Override
+            Integer result(int exitCode) {
+                return exitCode;
+            }
+        });
+    }
 
+    /**
+     * Open an exec channel and send the command, retrying once on a new
+     * session if the current one is dead.
+     */
+    RunningCommand startCommand(String command, OutputStream stdout, OutputStream stderr, CommandLatency latency)
+            throws JSchException {
+        for (int attempt = 0; ; attempt++) {
+            ChannelExec ch = (ChannelExec) getSession().openChannel(CHANNEL_EXEC);
             ch.setCommand(command);
+            ChannelSink out = new ChannelSink(stdout, latency, outputBufferSize);
+            ChannelSink err = new ChannelSink(stderr, latency, outputBufferSize);
+            ch.setOutputStream(out, false);
+            ch.setExtOutputStream(err, false);
             try {
-                InputStream out = ch.getInputStream();
-                InputStream err = ch.getErrStream();
                 ch.connect();
-                if (stdout != null) {
-                    ByteStreams.copy(out, stdout);
-                }
-                if (stderr != null) {
-                    ByteStreams.copy(err, stderr);
+            } catch (JSchException e) {
+                ch.disconnect();
+                if (attempt == 0 && recoverSession()) {
+                    continue;
                 }
+                throw e;
+            }
+            latency.opened();
+            return new RunningCommand(ch, out, err, latency);
+        }
+    }
 
-                int exitCode;
-                while ((exitCode = ch.getExitStatus()) == -1) {
-                    Thread.sleep(100);
-                }
+    public CommandStats getCommandStats() {
+        return commandStats;
+    }
 
-                return exitCode;
-            } finally {
-                ch.disconnect();
-            }
+    private String buildCommand(String[] commands) {
+        String prefix = environment != null
+                ? environment.prefix()
+                : SourcedEnvironment.sourceCommands(sourceFiles);
+        return prefix + joinCommands(commands);
+    }
 
-        } catch (Exception e) {
-            throw new SshException(e);
+    /**
+     * Capture the environment of the source files again, for when they
+     * changed. Only meaningful with {@link Builder#captureSourcedEnvironment()}.
+     */
+    public void refreshEnvironment() {
+        if (environment != null) {
+            environment.refresh();
         }
     }
 
-    private String buildCommand(String[] commands) {
+    private static String joinCommands(String[] commands) {
         if (commands.length == 0)
             throw new IllegalArgumentException("No available command");
 
-        StringBuilder builder = new StringBuilder();
-        for (String sourceFile : sourceFiles)
-            builder.append("source ").append(sourceFile).append(" \n ");
-
-        builder.append(commands[0]);
+        StringBuilder builder = new StringBuilder(commands[0]);
         for (int i = 1; i < commands.length; i++)
             builder.append(" \n ").append(commands[i]);
 
         return builder.toString();
     }
 
+    /**
+     * Open a remote shell to run commands in, with the source files sourced
+     * once. The caller closes it.
+     */
+    public ShellSession openShell() {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                ChannelShell ch = (ChannelShell) getSession().openChannel(CHANNEL_SHELL);
+                ShellSession shell = new ShellSession(this, ch);
+                try {
+                    ch.connect();
+                } catch (JSchException e) {
+                    ch.disconnect();
+                    if (attempt == 0 && recoverSession()) {
+                        continue;
+                    }
+                    throw e;
+                }
+                shell.init(SourcedEnvironment.sourceCommands(sourceFiles));
+                return shell;
+            }
+        } catch (JSchException | IOException e) {
+            throw new SshException(e);
+        }
+    }
+
+    /**
+     * The shell used by {@code execute} in persistent shell mode, reopened if
+     * it was closed.
+     */
+    private synchronized ShellSession shell() {
+        if (shell == null || !shell.isOpen()) {
+            shell = openShell();
+        }
+        return shell;
+    }
+
+    AsyncExecutor asyncExecutor() {
+        return async;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -156,6 +457,14 @@ public class SshClient implements Closeable {
         return keepAlive;
     }
 
+    String endpoint() {
+        return endpoint(username, host, port);
+    }
+
+    static String endpoint(String username, String host, int port) {
+        return username + "@" + host + ":" + port;
+    }
+
     public Map<String, String> getConfigs() {
         return configs;
     }
@@ -168,6 +477,10 @@ public class SshClient implements Closeable {
         return value;
     }
 
+    public ConnectionStats getConnectionStats() {
+        return connectionStats;
+    }
+
     public synchronized void open() {
         checkNotNull(authType);
         try {
@@ -187,9 +500,11 @@ public class SshClient implements Closeable {
 
             if (keepAlive) {
                 session.setServerAliveInterval(KEEP_ALIVE_INTERVAL);
+                session.setServerAliveCountMax(KEEP_ALIVE_COUNT_MAX);
             }
 
             session.connect();
+            connectionStats.connects.incrementAndGet();
 
         } catch (JSchException e) {
             throw new SshException(e);
@@ -201,86 +516,63 @@ public class SshClient implements Closeable {
         path = getAbsolutePath(path);
 
         try {
-            SftpATTRS attr = getSftpChannel().stat(path);
-
-            // FIXME following 2 statements cost about 400ms per each.
-            String groupName = getGroupNameByGID(attr.getGId());
-            String userName = getUserNameByUID(attr.getUId());
-            String fileName = getFileName(path);
-
-            SshFile file = new SshFile();
-            file.setName(fileName);
-            file.setPath(path);
-            file.setGroup(groupName);
-            file.setOwner(userName);
-            file.setLength(attr.getSize());
-            FilePermission permission = new FilePermission(attr.getPermissions());
-            file.setPermission(permission);
-            FileType t = FileType.parse(attr.getPermissions() & FileType.S_IFMT);
-            file.setType(t);
-
-            file.setLastAccessTime(new Date(((long) attr.getATime()) * 1000L));
-            file.setLastModifiedTime(new Date(((long) attr.getMTime()) * 1000L));
+            SftpATTRS attr = statCached(path);
 
+            SshFile file = toSshFile(getFileName(path), path, attr);
+            // owner and group are resolved when asked for
+            file.setIdentities(identities);
             return file;
         } catch (Exception e) {
             throw new SshException(e);
         }
     }
 
-    private String getUserNameByUID(int uid) {
-        String getUserCmd = "getent passwd | awk -F: '$3 == " + uid + " { print $1 }'";
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteArrayOutputStream err = new ByteArrayOutputStream();
-
-        this.execute(getUserCmd, out, err);
+    /**
+     * Fast path of {@link #getFile(String)} for polling loops: one SFTP stat,
+     * the path is not canonicalized and owner and group are never resolved,
+     * only {@link SshFile#getUid()} and {@link SshFile#getGid()} are set.
+     */
+    public SshFile stat(String path) {
+        if (path.startsWith("~")) {
+            path = getHomePath() + path.substring(1);
+        }
 
-        String errMsg = err.toString();
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
-        } else {
-            String groupName = out.toString().trim();
-            if (Strings.isNullOrEmpty(groupName)) {
-                return null;
-            } else {
-                return groupName;
-            }
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            return toSshFile(getFileName(path), path, sftp.stat(path));
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
         }
     }
 
-    private String getGroupNameByGID(int gid) {
-        String getGroupCmd = "getent group " + gid;
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteArrayOutputStream err = new ByteArrayOutputStream();
-
-        this.execute(getGroupCmd, out, err);
-
-        String errMsg = err.toString();
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
-        } else {
-            String userName = out.toString().trim();
-            if (Strings.isNullOrEmpty(userName)) {
-                return null;
-            } else {
-                List<String> tokens = splitStringAndOmitEmpty(userName, ":");
-                // Splitter.on(":").omitEmptyStrings().trimResults().splitToList(userName);
-                if (tokens.isEmpty()) {
-                    return null;
-                } else {
-                    return tokens.get(0);
-                }
-            }
-        }
+    SshFile toSshFile(String name, String path, SftpATTRS attr) {
+        SshFile file = new SshFile();
+        file.setName(name);
+        file.setPath(path);
+        file.setLength(attr.getSize());
+        file.setMode(attr.getPermissions());
+        file.setPermission(new FilePermission(attr.getPermissions()));
+        file.setType(FileType.parse(attr.getPermissions() & FileType.S_IFMT));
+        file.setUid(attr.getUId());
+        file.setGid(attr.getGId());
+        file.setAccessTime(attr.getATime() & 0xFFFFFFFFL);
+        file.setModifiedTime(attr.getMTime() & 0xFFFFFFFFL);
+        return file;
     }
 
     public List<SshFile> listFiles(String path) {
         path = getAbsolutePath(path);
 
         try {
-            Vector vector = getSftpChannel().ls(path);
+            Vector vector;
+            ChannelSftp sftp = acquireSftpChannel();
+            try {
+                vector = sftp.ls(path);
+            } finally {
+                releaseSftpChannel(sftp);
+            }
             if (vector == null || vector.isEmpty()) {
                 return Collections.EMPTY_LIST;
             }
@@ -294,27 +586,8 @@ public class SshClient implements Closeable {
                     continue;
                 }
 
-                SftpATTRS attr = entry.getAttrs();
-                SshFile file = new SshFile();
-                file.setName(entry.getFilename());
                 String filePath = createPath(path, entry.getFilename());
-                file.setPath(getAbsolutePath(filePath));
-                file.setLength(attr.getSize());
-                FilePermission permission = new FilePermission(attr.getPermissions());
-                file.setPermission(permission);
-                FileType t = FileType.parse(attr.getPermissions() & FileType.S_IFMT);
-                file.setType(t);
-
-                List<String> tokens = splitStringAndOmitEmpty(entry.getLongname(), " ");
-                String owner = tokens.get(2);
-                String group = tokens.get(3);
-
-                file.setOwner(owner);
-                file.setGroup(group);
-
-                file.setLastAccessTime(new Date(((long) attr.getATime()) * 1000L));
-                file.setLastModifiedTime(new Date(((long) attr.getMTime()) * 1000L));
-                sshFiles.add(file);
+                sshFiles.add(toSshFile(entry, getAbsolutePath(filePath)));
             }
             return sshFiles;
         } catch (Exception e) {
@@ -325,20 +598,110 @@ public class SshClient implements Closeable {
         }
     }
 
-    public InputStream readFile(String path) {
-        SshFile f = this.getFile(path);
+    /**
+     * Stream the entries of a directory to the handler as the server returns
+     * them, without collecting the whole listing. Returning false from the
+     * handler stops the listing; no further entries are requested.
+     * <p>
+     * Entry paths are built from the canonical directory path, symbolic links
+     * among the entries are not resolved. The handler runs while the listing
+     * holds one of the client's SFTP channels.
+     */
+    public void listFiles(String path, final SshFileHandler handler) {
+        final String dir = getAbsolutePath(path);
 
-        if (f == null) {
-            throw new SshException(MSG_FILE_NOT_FOUND + path);
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            sftp.ls(dir, new ChannelSftp.LsEntrySelector() {
+                @Override
+                public int select(LsEntry entry) {
+                    String filename = entry.getFilename();
+                    if (filename.equals(".") || filename.equals("..")) {
+                        return CONTINUE;
+                    }
+                    return handler.handle(toSshFile(entry, createPath(dir, filename))) ? CONTINUE : BREAK;
+                }
+            });
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
         }
-        if (!f.isFile()) {
-            throw new SshException(MSG_NOT_A_FILE + path);
+    }
+
+    /**
+     * List at most {@code limit} entries of a directory accepted by the filter,
+     * stopping the listing as soon as they are found.
+     */
+    public List<SshFile> listFiles(String path, final SshFileFilter filter, final int limit) {
+        checkArgument(limit > 0, "Limit must be positive.");
+        final List<SshFile> files = new ArrayList<>();
+        listFiles(path, new SshFileHandler() {
+            @Override
+            public boolean handle(SshFile file) {
+                if (filter == null || filter.accept(file)) {
+                    files.add(file);
+                }
+                return files.size() < limit;
+            }
+        });
+        return files;
+    }
+
+    SshFile toSshFile(LsEntry entry, String path) {
+        SshFile file = toSshFile(entry.getFilename(), path, entry.getAttrs());
+
+        List<String> tokens = splitStringAndOmitEmpty(entry.getLongname(), " ");
+        String owner = tokens.get(2);
+        String group = tokens.get(3);
+
+        file.setOwner(owner);
+        file.setGroup(group);
+        return file;
+    }
+
+    /**
+     * Walk the tree below {@code path}, reading several directories at once.
+     */
+    public void walkFileTree(String path, SshFileVisitor visitor) {
+        walkFileTree(path, visitor, new WalkOptions());
+    }
+
+    /**
+     * Walk the tree below {@code path}. Directories are read in parallel over
+     * the client's SFTP channels; entries reach the visitor as each listing
+     * streams in. Symbolic links are handled as the options say and the visitor
+     * can prune subtrees or stop the walk.
+     */
+    public void walkFileTree(String path, SshFileVisitor visitor, WalkOptions options) {
+        checkNotNull(visitor, "Visitor can't be null.");
+        new FileTreeWalker(this, visitor, options).walk(path);
+    }
+
+    public InputStream readFile(String path) {
+        if (path.startsWith("~")) {
+            path = getAbsolutePath(path);
         }
 
+        ChannelSftp sftp = acquireSftpChannel();
+        boolean opened = false;
         try {
-            return getSftpChannel().get(path);
+            SftpATTRS attrs = statIfExists(sftp, path);
+            if (attrs == null) {
+                throw new SshException(MSG_FILE_NOT_FOUND + path);
+            }
+            if (attrs.isDir()) {
+                throw new SshException(MSG_NOT_A_FILE + path);
+            }
+            InputStream in = sftpChannels.releaseOnClose(sftp, sftp.get(path));
+            opened = true;
+            return in;
         } catch (SftpException e) {
             throw new SshException(e);
+        } finally {
+            if (!opened) {
+                releaseSftpChannel(sftp);
+            }
         }
     }
 
@@ -358,9 +721,12 @@ public class SshClient implements Closeable {
             throw new SshException(MSG_FILE_ALREADY_EXISTS + path);
         }
 
+        changed(path);
+        ChannelSftp sftp = acquireSftpChannel();
         try {
-            return getSftpChannel().put(path, ChannelSftp.OVERWRITE);
+            return changedOnClose(path, sftpChannels.releaseOnClose(sftp, sftp.put(path, ChannelSftp.OVERWRITE)));
         } catch (SftpException e) {
+            releaseSftpChannel(sftp);
             throw new SshException(e);
         }
     }
@@ -370,9 +736,12 @@ public class SshClient implements Closeable {
             throw new SshException(MSG_FILE_NOT_FOUND + path);
         }
 
+        changed(path);
+        ChannelSftp sftp = acquireSftpChannel();
         try {
-            return getSftpChannel().put(path, ChannelSftp.APPEND);
+            return changedOnClose(path, sftpChannels.releaseOnClose(sftp, sftp.put(path, ChannelSftp.APPEND)));
         } catch (SftpException e) {
+            releaseSftpChannel(sftp);
             throw new SshException(e);
         }
     }
@@ -391,10 +760,14 @@ public class SshClient implements Closeable {
      * Create symbolic link
      */
     public void createSymLink(String src, String dst) {
+        changed(dst);
+        ChannelSftp sftp = acquireSftpChannel();
         try {
-            getSftpChannel().symlink(src, dst);
+            sftp.symlink(src, dst);
         } catch (SftpException e) {
             throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
         }
     }
 
@@ -402,15 +775,19 @@ public class SshClient implements Closeable {
      * Read symbolic link
      */
     public String readSymLink(String path) {
-        ChannelSftp sftp = getSftpChannel();
+        ChannelSftp sftp = acquireSftpChannel();
         try {
             return sftp.readlink(path);
         } catch (SftpException e) {
             throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
         }
     }
 
     public void move(String src, String dst) {
+        src = remotePath(src);
+        dst = remotePath(dst);
         if (!exists(src)) {
             throw new SshException(MSG_FILE_NOT_FOUND + src);
         }
@@ -418,29 +795,73 @@ public class SshClient implements Closeable {
             throw new SshException(MSG_FILE_ALREADY_EXISTS + dst);
         }
 
-        String command = "mv " + src + " " + dst;
-        ExecuteResult result = this.execute(command);
-        String errMsg = result.err;
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
+        try {
+            ChannelSftp sftp = acquireSftpChannel();
+            try {
+                sftp.rename(src, dst);
+                return;
+            } catch (SftpException e) {
+                // e.g. across file systems, which SFTP rename doesn't do
+                if (e.id != ChannelSftp.SSH_FX_FAILURE) {
+                    throw new SshException(e);
+                }
+            } finally {
+                releaseSftpChannel(sftp);
+            }
+            ExecuteResult result = executeFully("mv -- " + quote(src) + " " + quote(dst));
+            if (result.exitCode != 0) {
+                throw new SshException("mv exited with " + result.exitCode + ": " + result.err.trim());
+            }
+        } finally {
+            changed(src);
+            changed(dst);
         }
     }
 
     private boolean isDir(String path) {
-        ChannelSftp sftp = getSftpChannel();
         try {
-            SftpATTRS attrs = sftp.stat(path);
-            return attrs.isDir();
+            return statCached(path).isDir();
         } catch (SftpException e) {
             throw new SshException(e);
         }
     }
 
+    /**
+     * Stat through the metadata cache, if there is one.
+     */
+    private SftpATTRS statCached(String path) throws SftpException {
+        if (metadata != null) {
+            Optional<SftpATTRS> cached = metadata.attributes(path);
+            if (cached != null) {
+                if (!cached.isPresent()) {
+                    throw new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, MSG_FILE_NOT_FOUND + path);
+                }
+                return cached.get();
+            }
+        }
+
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            SftpATTRS attrs = sftp.stat(path);
+            if (metadata != null) {
+                metadata.putAttributes(path, Optional.of(attrs));
+            }
+            return attrs;
+        } catch (SftpException e) {
+            if (metadata != null && e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                metadata.putAttributes(path, Optional.<SftpATTRS>absent());
+            }
+            throw e;
+        } finally {
+            releaseSftpChannel(sftp);
+        }
+    }
+
     public String getHomePath() {
         if (Strings.isNullOrEmpty(homePath)) {
             synchronized (this) {
                 if (Strings.isNullOrEmpty(homePath)) {
-                    ExecuteResult result = execute("echo $HOME");
+                    ExecuteResult result = executeFully("echo $HOME");
                     if (!result.hasError()) {
                         homePath = result.out.trim();
                     } else {
@@ -458,14 +879,84 @@ public class SshClient implements Closeable {
             path = getHomePath() + path.substring(1);
         }
 
-        ChannelSftp sftp = getSftpChannel();
+        if (metadata != null) {
+            Optional<String> cached = metadata.realpath(path);
+            if (cached != null) {
+                if (!cached.isPresent()) {
+                    throw new SshException(MSG_FILE_NOT_FOUND + path);
+                }
+                return cached.get();
+            }
+        }
+
+        ChannelSftp sftp = acquireSftpChannel();
         try {
-            return sftp.realpath(path);
+            String realpath = sftp.realpath(path);
+            if (metadata != null) {
+                metadata.putRealpath(path, Optional.of(realpath));
+            }
+            return realpath;
         } catch (SftpException e) {
+            if (metadata != null && e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                metadata.putRealpath(path, Optional.<String>absent());
+            }
             throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
+        }
+    }
+
+    /**
+     * Drop everything the metadata cache holds, e.g. after commands changed
+     * remote files.
+     */
+    public void invalidateMetadataCache() {
+        if (metadata != null) {
+            metadata.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the metadata cache counters, or null if the cache is off
+     */
+    public MetadataCacheStats getMetadataCacheStats() {
+        return metadata == null ? null : metadata.stats();
+    }
+
+    /**
+     * Forget cached metadata of a path this client is about to change.
+     */
+    private void changed(String path) {
+        if (metadata != null && !Strings.isNullOrEmpty(path)) {
+            metadata.invalidate(path);
         }
     }
 
+    /**
+     * Forget cached metadata of a path again once the stream writing it is
+     * closed, the size and times are known then.
+     */
+    private OutputStream changedOnClose(final String path, OutputStream out) {
+        if (metadata == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    changed(path);
+                }
+            }
+        };
+    }
+
     /**
      * Smart copy local file to remote.
      * <p>
@@ -502,9 +993,104 @@ public class SshClient implements Closeable {
         copyFromLocal(src, dst, false);
     }
 
-    private void doCopyLocalFile(String src, String dst, boolean overwrite) {
-        File srcFile = new File(src);
-        if (!srcFile.exists()) {
+    /**
+     * Copy local file to remote like {@link #copyFromLocal(String, String, boolean)},
+     * but a directory is copied by several SFTP channels at once, or as one
+     * tar stream with {@link TransferOptions#tar(boolean)}. The remote
+     * directory tree is created first; a failing file doesn't stop the others
+     * and is reported in the result. A single file above
+     * {@link TransferOptions#segmentThreshold(long)} is copied in ranges at once.
+     */
+    public TransferResult copyFromLocal(String src, String dst, TransferOptions options) {
+        if (Strings.isNullOrEmpty(src) || Strings.isNullOrEmpty(dst)) {
+            throw new IllegalArgumentException("File path can't be empty.");
+        }
+
+        if (dst.startsWith("~")) {
+            dst = getHomePath() + dst.substring(1);
+        }
+
+        File srcFile = new File(src);
+        if (!srcFile.exists()) {
+            throw new SshException("Local file not found: " + src);
+        }
+
+        if (srcFile.isDirectory()) {
+            try {
+                if (options.isTar()) {
+                    return new TarTransfer(this, options).upload(srcFile, dst);
+                }
+                return new ParallelTransfer(this, options).upload(srcFile, dst);
+            } finally {
+                changed(dst);
+            }
+        }
+
+        TransferResult result = new TransferResult();
+        try {
+            if (exists(dst) && isDir(dst)) {
+                dst = createPath(dst, srcFile.getName());
+            }
+            if (options.isResume()) {
+                result.resumed(uploadResumable(srcFile, dst, options.getCheckpoint()));
+                if (options.getVerify() != null) {
+                    // the digest has to cover what earlier attempts sent
+                    Checksums.verify(this, srcFile, dst, options.getVerify());
+                }
+            } else if (srcFile.length() >= options.getSegmentThreshold()) {
+                try {
+                    new SegmentedTransfer(this, options).upload(srcFile, dst);
+                } finally {
+                    changed(dst);
+                }
+            } else {
+                doCopyLocalFile(src, dst, options.isOverwrite(), options.getVerify());
+            }
+            result.fileDone(srcFile.length());
+        } catch (SshException e) {
+            result.failed(src, dst, e);
+        }
+        return result.finish();
+    }
+
+    /**
+     * Bring a remote directory up to date with a local one, copying only new
+     * files and files whose size or modification time differ. The remote
+     * directory is created if missing; copied files get the local modification
+     * time. A failing file doesn't stop the others and is reported in the
+     * result, along with the files and bytes skipped as unchanged.
+     */
+    public TransferResult syncFromLocal(String src, String dst, SyncOptions options) {
+        if (Strings.isNullOrEmpty(src) || Strings.isNullOrEmpty(dst)) {
+            throw new IllegalArgumentException("File path can't be empty.");
+        }
+
+        if (dst.startsWith("~")) {
+            dst = getHomePath() + dst.substring(1);
+        }
+
+        File srcFile = new File(src);
+        if (!srcFile.isDirectory()) {
+            throw new SshException(MSG_NOT_A_DIRECTORY + src);
+        }
+
+        try {
+            return new DirectorySync(this, options).upload(srcFile, dst);
+        } finally {
+            changed(dst);
+        }
+    }
+
+    private void doCopyLocalFile(String src, String dst, boolean overwrite) {
+        doCopyLocalFile(src, dst, overwrite, null);
+    }
+
+    /**
+     * @param verify digest to verify the copy with, or null
+     */
+    private void doCopyLocalFile(String src, String dst, boolean overwrite, ChecksumAlgorithm verify) {
+        File srcFile = new File(src);
+        if (!srcFile.exists()) {
             throw new SshException(MSG_FILE_NOT_FOUND + src);
         }
         if (!srcFile.isFile()) {
@@ -525,13 +1111,41 @@ public class SshClient implements Closeable {
         }
 
         // do copy regular file
-        try (FileInputStream in = new FileInputStream(srcFile); OutputStream out = this.createFile(dst, overwrite)) {
+        MessageDigest digest = verify == null ? null : verify.newDigest();
+        try (InputStream in = digest == null ? new FileInputStream(srcFile)
+                : new DigestInputStream(new FileInputStream(srcFile), digest);
+             OutputStream out = this.createFile(dst, overwrite)) {
             ByteStreams.copy(in, out);
         } catch (IOException e) {
             throw new SshException(e);
         }
 
-        // TODO checking
+        if (digest != null) {
+            // the remote file is complete only now, so its digest can't overlap the upload
+            Checksums.check(Checksums.startRemote(this, dst, verify), dst, Checksums.hex(digest), verify);
+        }
+    }
+
+    /**
+     * @return the number of bytes that were already at the destination
+     */
+    private long uploadResumable(File src, String dst, File checkpoint) {
+        if (!src.isFile()) {
+            throw new SshException(MSG_NOT_A_FILE + src);
+        }
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            String parent = getParentPath(dst);
+            if (!parent.isEmpty()) {
+                mkdirs(sftp, parent);
+            }
+            return ResumableTransfer.upload(this, sftp, src, dst, checkpoint);
+        } catch (SftpException | IOException e) {
+            throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
+            changed(dst);
+        }
     }
 
     private void doCopyLocalFile(String src, String dst) {
@@ -599,7 +1213,65 @@ public class SshClient implements Closeable {
 
     }
 
+    /**
+     * Copy remote file to local like {@link #copyToLocal(String, String)}, but
+     * a directory is listed and downloaded by several SFTP channels at once,
+     * or as one tar stream with {@link TransferOptions#tar(boolean)}. A
+     * failing file doesn't stop the others and is reported in the result. A
+     * single file above {@link TransferOptions#segmentThreshold(long)} is
+     * copied in ranges at once.
+     */
+    public TransferResult copyToLocal(String src, String dst, TransferOptions options) {
+        if (!exists(src)) {
+            throw new SshException(MSG_FILE_NOT_FOUND + src);
+        }
+
+        if (isDir(src)) {
+            if (options.isTar()) {
+                return new TarTransfer(this, options).download(getAbsolutePath(src), new File(dst));
+            }
+            return new ParallelTransfer(this, options).download(getAbsolutePath(src), new File(dst));
+        }
+
+        TransferResult result = new TransferResult();
+        File dstFile = new File(dst);
+        if (dstFile.isDirectory()) {
+            dstFile = new File(dstFile, getFileName(src));
+        }
+        try {
+            if (options.isResume()) {
+                result.resumed(downloadResumable(src, dstFile, options.getCheckpoint()));
+                if (options.getVerify() != null) {
+                    Checksums.verify(this, dstFile, remotePath(src), options.getVerify());
+                }
+                result.fileDone(dstFile.length());
+                return result.finish();
+            }
+            long size = stat(src).getLength();
+            if (size >= options.getSegmentThreshold()) {
+                new SegmentedTransfer(this, options).download(remotePath(src), size, dstFile);
+                result.fileDone(size);
+                return result.finish();
+            }
+            if (options.isOverwrite() && dstFile.isFile() && !dstFile.delete()) {
+                throw new SshException("Failed to delete: " + dstFile);
+            }
+            doCopyRemoteFileToLocal(src, dstFile.getPath(), options.getVerify());
+            result.fileDone(dstFile.length());
+        } catch (SshException e) {
+            result.failed(src, dstFile.getPath(), e);
+        }
+        return result.finish();
+    }
+
     private void doCopyRemoteFileToLocal(String src, String dst) {
+        doCopyRemoteFileToLocal(src, dst, null);
+    }
+
+    /**
+     * @param verify digest to verify the copy with, or null
+     */
+    private void doCopyRemoteFileToLocal(String src, String dst, ChecksumAlgorithm verify) {
         File dstFile = new File(dst);
 
         File dstParent = dstFile.getParentFile();
@@ -615,15 +1287,44 @@ public class SshClient implements Closeable {
             }
         }
 
-        // do copy regular file
+        // the host reads the file for its digest while we do
+        String path = remotePath(src);
+        ListenableFuture<ExecuteResult> remoteDigest = verify == null ? null : Checksums.startRemote(this, path, verify);
+        MessageDigest digest = verify == null ? null : verify.newDigest();
 
-        try (InputStream in = this.readFile(src); OutputStream out = new FileOutputStream(dstFile)) {
+        // do copy regular file
+        try (InputStream in = this.readFile(src);
+             OutputStream out = digest == null ? new FileOutputStream(dstFile)
+                     : new DigestOutputStream(new FileOutputStream(dstFile), digest)) {
             ByteStreams.copy(in, out);
-        } catch (IOException e) {
-            throw new SshException(e);
+        } catch (IOException | RuntimeException e) {
+            if (remoteDigest != null) {
+                remoteDigest.cancel(true);
+            }
+            throw e instanceof SshException ? (SshException) e : new SshException(e);
         }
 
-        // TODO checking
+        if (remoteDigest != null) {
+            Checksums.check(remoteDigest, path, Checksums.hex(digest), verify);
+        }
+    }
+
+    /**
+     * @return the number of bytes that were already at the destination
+     */
+    private long downloadResumable(String src, File dst, File checkpoint) {
+        File parent = dst.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            return ResumableTransfer.download(this, sftp, src, dst, checkpoint);
+        } catch (SftpException | IOException e) {
+            throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
+        }
     }
 
     private void doCopyRemoteDirToLocal(String src, String dst) {
@@ -666,15 +1367,30 @@ public class SshClient implements Closeable {
      * @param recursive remove directories and their contents recursively
      */
     public void delete(String path, boolean recursive) {
-        if (!exists(path)) {
-            return;
-        }
-
-        String cmd = "rm " + (recursive ? "-rf " : "-f ") + path;
-        ExecuteResult result = this.execute(cmd);
-        String errMsg = result.err;
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
+        path = remotePath(path);
+        try {
+            ChannelSftp sftp = acquireSftpChannel();
+            try {
+                SftpATTRS attrs = lstatIfExists(sftp, escapeGlob(path));
+                if (attrs == null) {
+                    return;
+                }
+                if (!attrs.isDir()) {
+                    sftp.rm(escapeGlob(path));
+                    return;
+                }
+                if (!recursive) {
+                    throw new SshException(MSG_NOT_A_FILE + path);
+                }
+            } finally {
+                // the workers of a recursive delete need the channel
+                releaseSftpChannel(sftp);
+            }
+            RecursiveOperation.delete(this, path, maxSftpChannels);
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            changed(path);
         }
     }
 
@@ -707,17 +1423,30 @@ public class SshClient implements Closeable {
      * @param createParents no error if existing, make parent directories as needed
      */
     private void mkdir(String path, boolean createParents) {
-        String cmd = "mkdir " + (createParents ? "-p " : " ") + path;
-        ExecuteResult result = this.execute(cmd);
-        String errMsg = result.err;
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
+        path = remotePath(path);
+        ChannelSftp sftp = acquireSftpChannel();
+        try {
+            if (createParents) {
+                mkdirs(sftp, path);
+            } else {
+                sftp.mkdir(path);
+            }
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            releaseSftpChannel(sftp);
+            changed(path);
+            // parents may have been created too
+            for (String p = getParentPath(path); createParents && !p.isEmpty(); p = getParentPath(p)) {
+                changed(p);
+            }
         }
-
     }
 
     /**
      * Change file group, correspond to `chgrp` command.
+     *
+     * @param group a group name or a numeric gid
      */
     public void chgrp(String path, String group) {
         this.chgrp(path, group, false);
@@ -725,28 +1454,36 @@ public class SshClient implements Closeable {
 
     public void chgrp(String path, String group, boolean recursive) {
         path = getAbsolutePath(path);
-        // chgrp [-opts] group file
-        String cmd = "chgrp " + (recursive ? " -R " : " ") + group + " " + path;
-        ExecuteResult result = this.execute(cmd);
-        String errMsg = result.err;
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
-        }
+        final int gid = identities.groupId(group);
+        setStat(path, recursive, new RecursiveOperation.Action() {
+            @Override
+            public void apply(ChannelSftp sftp, String p) throws SftpException {
+                setIds(sftp, p, -1, gid);
+            }
+        });
     }
 
+    /**
+     * Change file owner, correspond to `chown` command.
+     *
+     * @param owner a user name or a numeric uid, optionally followed by a
+     *              colon and a group
+     */
     public void chown(String path, String owner) {
         this.chown(path, owner, false);
     }
 
     public void chown(String path, String owner, boolean recursive) {
         path = getAbsolutePath(path);
-        // chown [-opts] user file
-        String cmd = "chown " + (recursive ? " -R " : " ") + owner + " " + path;
-        ExecuteResult result = this.execute(cmd);
-        String errMsg = result.err;
-        if (!Strings.isNullOrEmpty(errMsg)) {
-            throw new SshException(errMsg);
-        }
+        int colon = owner.indexOf(':');
+        final int uid = identities.userId(colon < 0 ? owner : owner.substring(0, colon));
+        final int gid = colon < 0 || colon == owner.length() - 1 ? -1 : identities.groupId(owner.substring(colon + 1));
+        setStat(path, recursive, new RecursiveOperation.Action() {
+            @Override
+            public void apply(ChannelSftp sftp, String p) throws SftpException {
+                setIds(sftp, p, uid, gid);
+            }
+        });
     }
 
     public void chmod(String path, FilePermission permission) {
@@ -754,15 +1491,90 @@ public class SshClient implements Closeable {
     }
 
     public void chmod(String path, FilePermission permission, boolean recursive) {
-        String cmd = "chmod " + (recursive ? " -R " : " ") + Integer.toOctalString(permission.flag) + " " + path;
-        ExecuteResult result = this.execute(cmd);
-        if (result.hasError()) {
-            throw new SshException(result.err);
+        path = getAbsolutePath(path);
+        final int flag = permission.flag;
+        setStat(path, recursive, new RecursiveOperation.Action() {
+            @Override
+            public void apply(ChannelSftp sftp, String p) throws SftpException {
+                SftpATTRS attrs = emptyAttributes();
+                if (attrs == null) {
+                    sftp.chmod(flag, escapeGlob(p));
+                    return;
+                }
+                attrs.setPERMISSIONS(flag);
+                sftp.setStat(escapeGlob(p), attrs);
+            }
+        });
+    }
+
+    /**
+     * Set the owner and group of a path in one setstat request, without the
+     * stat JSch's own chown and chgrp make first.
+     *
+     * @param uid the owner, or -1 to leave it; chown(2) leaves an id of -1 as
+     *            it is, and sftp-server hands both ids to it as they come
+     * @param gid the group, or -1 to leave it
+     */
+    private static void setIds(ChannelSftp sftp, String path, int uid, int gid) throws SftpException {
+        SftpATTRS attrs = emptyAttributes();
+        if (attrs != null) {
+            attrs.setUIDGID(uid, gid);
+            sftp.setStat(escapeGlob(path), attrs);
+            return;
+        }
+        if (uid >= 0) {
+            sftp.chown(uid, escapeGlob(path));
+        }
+        if (gid >= 0) {
+            sftp.chgrp(gid, escapeGlob(path));
+        }
+    }
+
+    /**
+     * Change attributes of a path, and of everything below it if recursive
+     * and the path is a directory.
+     */
+    private void setStat(String path, boolean recursive, RecursiveOperation.Action action) {
+        try {
+            ChannelSftp sftp = acquireSftpChannel();
+            try {
+                if (!recursive || !sftp.stat(escapeGlob(path)).isDir()) {
+                    action.apply(sftp, path);
+                    return;
+                }
+            } finally {
+                releaseSftpChannel(sftp);
+            }
+            RecursiveOperation.apply(this, path, maxSftpChannels, action);
+        } catch (SftpException e) {
+            throw new SshException(e);
+        } finally {
+            changed(path);
         }
     }
 
+    /**
+     * Expand a leading {@code ~} and drop trailing slashes.
+     */
+    private String remotePath(String path) {
+        if (path.startsWith("~")) {
+            path = getHomePath() + path.substring(1);
+        }
+        while (path.length() > 1 && path.endsWith(SLASH)) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
     @Override
     public void close() {
+        synchronized (this) {
+            if (shell != null) {
+                shell.close();
+            }
+        }
+        async.shutdown();
+        sftpChannels.clear();
         session.disconnect();
     }
 
@@ -774,29 +1586,132 @@ public class SshClient implements Closeable {
         return !isOpen();
     }
 
+    /**
+     * Returns the current session, reconnecting only if the transport is already
+     * known to be down. No remote round trip is made here: a dead peer is detected
+     * by the transport itself (socket errors, or unanswered keepalives when
+     * {@link Builder#keepAlive()} is on) or by a failed channel open.
+     */
     private synchronized Session getSession() {
-        try {
-            ChannelExec testChannel = (ChannelExec) session.openChannel(CHANNEL_EXEC);
-            testChannel.setCommand("true");
-            testChannel.connect();
-            testChannel.disconnect();
-        } catch (Throwable t) {
-            open();
+        if (session == null || !session.isConnected()) {
+            if (session != null) {
+                connectionStats.failures.incrementAndGet();
+            }
+            reconnect();
         }
         return session;
     }
 
-    private synchronized ChannelSftp getSftpChannel() {
-        if (sftpChannel == null || sftpChannel.isClosed()) {
-            try {
-                Session session = getSession();
-                sftpChannel = (ChannelSftp) session.openChannel(CHANNEL_SFTP);
-                sftpChannel.connect();
-            } catch (JSchException e) {
-                throw new SshException(e);
+    /**
+     * Called after an operation failed. Reconnects if the failure was caused by
+     * a dead transport, so the caller can retry once.
+     *
+     * @return true if the session was re-established
+     */
+    private synchronized boolean recoverSession() {
+        if (session != null && session.isConnected()) {
+            return false;
+        }
+        connectionStats.failures.incrementAndGet();
+        reconnect();
+        return true;
+    }
+
+    private void reconnect() {
+        boolean reconnect = session != null;
+        if (reconnect) {
+            session.disconnect();
+        }
+        sftpChannels.clear();
+        if (environment != null) {
+            environment.invalidate();
+        }
+        open();
+        if (reconnect) {
+            connectionStats.reconnects.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends a keepalive request on the transport. Returns false (and records a
+     * failure) if the session turns out to be down; nothing is reconnected.
+     */
+    public boolean ping() {
+        Session s = this.session;
+        if (s == null || !s.isConnected()) {
+            return false;
+        }
+        try {
+            s.sendKeepAliveMsg();
+            connectionStats.keepAlives.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            connectionStats.failures.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Makes an SFTP round trip, which unlike {@link #ping()} fails when the
+     * server doesn't answer. Returns false if the session is down or the
+     * request fails; nothing is reconnected.
+     */
+    boolean validate() {
+        if (!isOpen()) {
+            return false;
+        }
+        ChannelSftp sftp;
+        try {
+            sftp = acquireSftpChannel();
+        } catch (RuntimeException e) {
+            connectionStats.failures.incrementAndGet();
+            return false;
+        }
+        try {
+            sftp.realpath(".");
+            return true;
+        } catch (SftpException e) {
+            connectionStats.failures.incrementAndGet();
+            return false;
+        } finally {
+            releaseSftpChannel(sftp);
+        }
+    }
+
+    /**
+     * Take an SFTP channel for exclusive use; it must be handed back with
+     * {@link #releaseSftpChannel(ChannelSftp)}. Blocks while all channels are busy.
+     */
+    ChannelSftp acquireSftpChannel() {
+        return sftpChannels.acquire();
+    }
+
+    void releaseSftpChannel(ChannelSftp sftp) {
+        sftpChannels.release(sftp);
+    }
+
+    public ChannelPoolStats getSftpChannelStats() {
+        return sftpChannels.stats();
+    }
+
+    private ChannelSftp openSftpChannel() {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                ChannelSftp ch = (ChannelSftp) getSession().openChannel(CHANNEL_SFTP);
+                try {
+                    ch.connect();
+                    return ch;
+                } catch (JSchException e) {
+                    ch.disconnect();
+                    if (attempt == 0 && recoverSession()) {
+                        continue;
+                    }
+                    throw e;
+                }
             }
+        } catch (JSchException e) {
+            throw new SshException(e);
         }
-        return sftpChannel;
     }
 
     private enum AuthType {
@@ -817,12 +1732,40 @@ public class SshClient implements Closeable {
 
         private boolean keepAlive = false;
 
+        private int maxSftpChannels = DEFAULT_MAX_SFTP_CHANNELS;
+
+        private long identityCacheTtl = DEFAULT_IDENTITY_CACHE_TTL;
+
+        private int outputBufferSize = 0;
+
+        private int maxConcurrentCommands = DEFAULT_MAX_CONCURRENT_COMMANDS;
+
+        private int asyncThreads = DEFAULT_ASYNC_THREADS;
+
+        private int captureHeadBytes = CaptureOutputStream.UNLIMITED;
+
+        private int captureTailBytes = 0;
+
+        private boolean persistentShell = false;
+
+        private boolean captureSourcedEnvironment = false;
+
+        private long metadataCacheTtl = 0;
+
+        private int metadataCacheSize = 0;
+
+        private SftpChannelPool.ChannelFactory sftpChannelFactory;
+
         public Builder(String username, String host, int port) {
             this.username = username;
             this.host = host;
             this.port = port;
         }
 
+        String endpoint() {
+            return SshClient.endpoint(username, host, port);
+        }
+
         public Builder authenticateWithPassword(String password) {
             if (Strings.isNullOrEmpty(password)) {
                 throw new IllegalArgumentException("Password can't be null or empty.");
@@ -847,12 +1790,159 @@ public class SshClient implements Closeable {
         }
 
         /**
-         * Not supported yet.
+         * Compress the session's traffic with zlib, if the server agrees, at
+         * the given level from 1 (fastest) to 9 (smallest). Worth it on slow
+         * links only: above a few hundred Mbit/s compressing costs more time
+         * than it saves, see {@code CompressionBenchmark}. The level applies to
+         * what the client sends; the server compresses what it sends at its
+         * own level.
+         */
+        public Builder compression(int level) {
+            return compression(level, ZlibCompression.class);
+        }
+
+        /**
+         * Like {@link #compression(int)}, but data that doesn't compress (e.g.
+         * archives, images) is sent uncompressed until a later sample shows
+         * it compresses again, so mixed transfers don't burn CPU on it.
+         *
+         * @see ZlibCompression.Adaptive
          */
-        private Builder enableCompression() {
+        public Builder adaptiveCompression(int level) {
+            return compression(level, ZlibCompression.Adaptive.class);
+        }
+
+        private Builder compression(int level, Class<? extends ZlibCompression> implementation) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Compression level must be between 1 and 9.");
+            }
             this.setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
             this.setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
-            this.setConfig("compression_level", "9");
+            this.setConfig("compression_level", Integer.toString(level));
+            // the JDK's zlib is native, JSch's own is pure Java
+            this.setConfig("zlib@openssh.com", implementation.getName());
+            this.setConfig("zlib", implementation.getName());
+            return this;
+        }
+
+        /**
+         * Upper bound of SFTP channels opened in parallel on the session. It
+         * should not exceed the server's {@code MaxSessions} (10 by default on
+         * OpenSSH), minus the exec channels used concurrently.
+         */
+        public Builder maxSftpChannels(int maxSftpChannels) {
+            if (maxSftpChannels <= 0) {
+                throw new IllegalArgumentException("Max SFTP channels must be positive.");
+            }
+            this.maxSftpChannels = maxSftpChannels;
+            return this;
+        }
+
+        /**
+         * How long the remote user and group tables used to resolve file owners
+         * are kept before being fetched again.
+         */
+        public Builder identityCacheTtl(long time, TimeUnit unit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("TTL can't be negative.");
+            }
+            this.identityCacheTtl = unit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * Bytes of command output collected per stream before they are written
+         * to the caller's stream; 0 (the default) hands every packet over as it
+         * arrives. A buffer turns the up to 32 KB packets into fewer, larger
+         * writes for slow sinks such as files.
+         */
+        public Builder outputBufferSize(int outputBufferSize) {
+            if (outputBufferSize < 0) {
+                throw new IllegalArgumentException("Buffer size can't be negative.");
+            }
+            this.outputBufferSize = outputBufferSize;
+            return this;
+        }
+
+        /**
+         * Upper bound of exec channels kept open by
+         * {@link SshClient#executeAsync(String[], OutputStream, OutputStream)};
+         * the same {@code MaxSessions} limit as for SFTP channels applies.
+         */
+        public Builder maxConcurrentCommands(int maxConcurrentCommands) {
+            if (maxConcurrentCommands <= 0) {
+                throw new IllegalArgumentException("Max concurrent commands must be positive.");
+            }
+            this.maxConcurrentCommands = maxConcurrentCommands;
+            return this;
+        }
+
+        /**
+         * Threads opening channels and completing futures of asynchronous
+         * commands. They never wait for a command to finish, so a couple are
+         * enough for many commands in flight.
+         */
+        public Builder asyncThreads(int asyncThreads) {
+            if (asyncThreads <= 0) {
+                throw new IllegalArgumentException("Async threads must be positive.");
+            }
+            this.asyncThreads = asyncThreads;
+            return this;
+        }
+
+        /**
+         * Bound the output kept in an {@link ExecuteResult}: the first
+         * {@code headBytes} and the last {@code tailBytes} of each stream, the
+         * rest is dropped and counted. Unbounded by default.
+         */
+        public Builder captureLimit(int headBytes, int tailBytes) {
+            if (headBytes < 0 || tailBytes < 0) {
+                throw new IllegalArgumentException("Capture limits can't be negative.");
+            }
+            this.captureHeadBytes = headBytes;
+            this.captureTailBytes = tailBytes;
+            return this;
+        }
+
+        /**
+         * Run {@code execute} commands one after another in a single shell
+         * kept open on the session, see {@link ShellSession}, instead of a new
+         * exec channel and shell each. Commands then share the shell's state
+         * and run one at a time; {@code executeAsync} still uses exec channels.
+         */
+        public Builder persistentShell() {
+            this.persistentShell = true;
+            return this;
+        }
+
+        /**
+         * Source the files added with {@link #addSourceFile(String)} once per
+         * session and replay the variables they export in front of each
+         * command, instead of sourcing them for every command. See
+         * {@link SshClient#refreshEnvironment()} for when the files change.
+         */
+        public Builder captureSourcedEnvironment() {
+            this.captureSourcedEnvironment = true;
+            return this;
+        }
+
+        /**
+         * Cache the results of remote path lookups ({@code exists}, {@code isDir},
+         * {@code getAbsolutePath}, {@code getFile}) for up to {@code ttl},
+         * keeping at most {@code maxEntries} paths. Changes made through the
+         * client invalidate the affected paths; changes made by commands or
+         * other clients may go unseen until entries expire, see
+         * {@link SshClient#invalidateMetadataCache()}. Off by default.
+         */
+        public Builder metadataCache(long ttl, TimeUnit unit, int maxEntries) {
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("TTL must be positive.");
+            }
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Max entries must be positive.");
+            }
+            this.metadataCacheTtl = unit.toMillis(ttl);
+            this.metadataCacheSize = maxEntries;
             return this;
         }
 
@@ -866,7 +1956,50 @@ public class SshClient implements Closeable {
             return this;
         }
 
+        Builder sftpChannelFactory(SftpChannelPool.ChannelFactory factory) {
+            this.sftpChannelFactory = factory;
+            return this;
+        }
+
         public SshClient create() {
+            SshClient client = newClient();
+            client.open();
+            return client;
+        }
+
+        /**
+         * Whether clients of both builders connect the same way and behave
+         * the same, only the endpoint aside.
+         */
+        boolean sameSettings(Builder other) {
+            return other == this || (authType == other.authType
+                    && Objects.equals(identify, other.identify)
+                    && sourceFiles.equals(other.sourceFiles)
+                    && effectiveConfigs().equals(other.effectiveConfigs())
+                    && keepAlive == other.keepAlive
+                    && maxSftpChannels == other.maxSftpChannels
+                    && identityCacheTtl == other.identityCacheTtl
+                    && outputBufferSize == other.outputBufferSize
+                    && maxConcurrentCommands == other.maxConcurrentCommands
+                    && asyncThreads == other.asyncThreads
+                    && captureHeadBytes == other.captureHeadBytes
+                    && captureTailBytes == other.captureTailBytes
+                    && persistentShell == other.persistentShell
+                    && captureSourcedEnvironment == other.captureSourcedEnvironment
+                    && metadataCacheTtl == other.metadataCacheTtl
+                    && metadataCacheSize == other.metadataCacheSize);
+        }
+
+        private Map<String, String> effectiveConfigs() {
+            Map<String, String> effective = new HashMap<>(configs);
+            effective.put("StrictHostKeyChecking", "no");
+            return effective;
+        }
+
+        /**
+         * A client set up but not connected yet.
+         */
+        SshClient newClient() {
             if (null == this.authType)
                 throw new SshException("No authentication information.");
 
@@ -881,12 +2014,131 @@ public class SshClient implements Closeable {
             client.configs = this.configs;
             client.keepAlive = this.keepAlive;
             client.sourceFiles = this.sourceFiles;
-
-            client.open();
+            client.maxSftpChannels = this.maxSftpChannels;
+            client.outputBufferSize = this.outputBufferSize;
+            client.sftpChannels = this.sftpChannelFactory == null ? client.newSftpChannelPool()
+                    : new SftpChannelPool(this.sftpChannelFactory, this.maxSftpChannels);
+            client.identities = new IdentityCache(client, this.identityCacheTtl);
+            client.captureHeadBytes = this.captureHeadBytes;
+            client.captureTailBytes = this.captureTailBytes;
+            client.persistentShell = this.persistentShell;
+            if (this.metadataCacheTtl > 0) {
+                client.metadata = new MetadataCache(this.metadataCacheTtl, this.metadataCacheSize);
+            }
+            if (this.captureSourcedEnvironment) {
+                client.environment = new SourcedEnvironment(client, this.sourceFiles);
+            }
+            client.async = new AsyncExecutor(client, endpoint(), this.asyncThreads, this.maxConcurrentCommands);
             return client;
         }
     }
 
+    /**
+     * Escape a path for the ChannelSftp methods that treat it as a glob (rm,
+     * rmdir, ls, stat, setStat, chmod and the like), so that {@code *} and
+     * {@code ?} match only themselves and backslashes survive JSch's unquoting.
+     */
+    static String escapeGlob(String path) {
+        StringBuilder builder = null;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                if (builder == null) {
+                    builder = new StringBuilder(path.length() + 8).append(path, 0, i);
+                }
+                builder.append('\\');
+            }
+            if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder == null ? path : builder.toString();
+    }
+
+    /**
+     * Attributes with no field set, to which a setstat request sends only the
+     * fields set afterwards. JSch has no public way to make them, its own
+     * chown and chgrp stat the path first and send back what they read.
+     *
+     * @return the attributes, or null if JSch doesn't let us make them
+     */
+    static SftpATTRS emptyAttributes() {
+        Constructor<SftpATTRS> constructor = EMPTY_ATTRIBUTES;
+        if (constructor == null) {
+            return null;
+        }
+        try {
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Constructor<SftpATTRS> emptyAttributesConstructor() {
+        try {
+            Constructor<SftpATTRS> constructor = SftpATTRS.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stat a path that may be missing.
+     *
+     * @return the attributes, or null if the path doesn't exist
+     */
+    static SftpATTRS statIfExists(ChannelSftp sftp, String path) throws SftpException {
+        try {
+            return sftp.stat(path);
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #statIfExists(ChannelSftp, String)}, but doesn't follow a
+     * symbolic link.
+     */
+    static SftpATTRS lstatIfExists(ChannelSftp sftp, String path) throws SftpException {
+        try {
+            return sftp.lstat(path);
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    static void mkdirs(ChannelSftp sftp, String path) throws SftpException {
+        SftpATTRS attrs = statIfExists(sftp, path);
+        if (attrs != null) {
+            if (!attrs.isDir()) {
+                throw new SshException(MSG_NOT_A_DIRECTORY + path);
+            }
+            return;
+        }
+        String parent = PathUtil.getParentPath(path);
+        if (!parent.isEmpty()) {
+            mkdirs(sftp, parent);
+        }
+        sftp.mkdir(path);
+    }
+
+    private SftpChannelPool newSftpChannelPool() {
+        return new SftpChannelPool(new SftpChannelPool.ChannelFactory() {
+            @Override
+            public ChannelSftp open() {
+                return openSftpChannel();
+            }
+        }, maxSftpChannels);
+    }
+
     private <T> T checkNotNull(T reference) {
         if (reference == null)
             throw new NullPointerException();
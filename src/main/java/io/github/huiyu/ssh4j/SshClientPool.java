@@ -0,0 +1,492 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of connected {@link SshClient}s, keyed by {@code user@host:port}.
+ * All builders borrowing for an endpoint must have the same settings, those
+ * of the first one; clients connect and behave as it says.
+ * <p>
+ * Clients are borrowed with {@link #borrow(SshClient.Builder)} and must be
+ * handed back with {@link #release(SshClient)} (or {@link #invalidate(SshClient)}
+ * if they are broken) instead of being closed.
+ */
+public class SshClientPool implements Closeable {
+
+    private final int minSessions;
+    private final int maxSessions;
+    private final long maxWaitMillis;
+    private final long maxIdleMillis;
+    private final long validateAfterMillis;
+    private final ClientFactory factory;
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final PoolStats stats = new PoolStats();
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    private SshClientPool(Builder builder) {
+        this.minSessions = builder.minSessions;
+        this.maxSessions = builder.maxSessions;
+        this.maxWaitMillis = builder.maxWaitMillis;
+        this.maxIdleMillis = builder.maxIdleMillis;
+        this.validateAfterMillis = builder.validateAfterMillis;
+        this.factory = builder.factory != null ? builder.factory : new ConnectingFactory();
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ssh4j-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, builder.evictionIntervalMillis, builder.evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Borrow a connected client for the endpoint described by the builder,
+     * creating one if none is idle and the endpoint is below its maximum.
+     * Blocks up to the configured max wait otherwise.
+     */
+    public SshClient borrow(SshClient.Builder builder) {
+        checkOpen();
+        Endpoint ep = endpoint(builder);
+        long start = System.currentTimeMillis();
+        long deadline = start + maxWaitMillis;
+        boolean waited = false;
+
+        while (true) {
+            PooledClient candidate;
+            synchronized (ep) {
+                candidate = ep.idle.pollFirst();
+                if (candidate == null) {
+                    if (ep.total < maxSessions) {
+                        ep.total++;
+                        break;
+                    }
+                    if (!waited) {
+                        waited = true;
+                        stats.waits.incrementAndGet();
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        stats.timeouts.incrementAndGet();
+                        throw new SshException("Timed out waiting for a session to " + ep.key);
+                    }
+                    try {
+                        ep.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SshException(e);
+                    }
+                    checkOpen();
+                    continue;
+                }
+                ep.borrowed.add(candidate.client);
+            }
+
+            // validate outside the lock, it may make a round trip
+            if (validate(candidate)) {
+                return lent(candidate.client, start, waited);
+            }
+            synchronized (ep) {
+                ep.borrowed.remove(candidate.client);
+                ep.total--;
+                ep.notifyAll();
+            }
+            destroy(candidate.client);
+            stats.evictions.incrementAndGet();
+        }
+
+        SshClient client;
+        try {
+            client = factory.create(ep.builder);
+            stats.creations.incrementAndGet();
+        } catch (RuntimeException e) {
+            synchronized (ep) {
+                ep.total--;
+                ep.notifyAll();
+            }
+            throw e;
+        }
+        synchronized (ep) {
+            ep.borrowed.add(client);
+        }
+        return lent(client, start, waited);
+    }
+
+    /**
+     * Give a borrowed client back to the pool.
+     */
+    public void release(SshClient client) {
+        Endpoint ep = borrowedFrom(client);
+        boolean keep = !closed && factory.isOpen(client);
+        synchronized (ep) {
+            ep.borrowed.remove(client);
+            if (keep) {
+                ep.idle.addFirst(new PooledClient(client));
+            } else {
+                ep.total--;
+            }
+            ep.notifyAll();
+        }
+        if (!keep) {
+            destroy(client);
+        }
+    }
+
+    /**
+     * Give a borrowed client back to the pool and close it, e.g. after it
+     * failed in a way the caller doesn't trust.
+     */
+    public void invalidate(SshClient client) {
+        Endpoint ep = borrowedFrom(client);
+        synchronized (ep) {
+            ep.borrowed.remove(client);
+            ep.total--;
+            ep.notifyAll();
+        }
+        destroy(client);
+        stats.evictions.incrementAndGet();
+    }
+
+    /**
+     * Open sessions to the endpoint until the configured minimum is reached.
+     */
+    public void warmUp(SshClient.Builder builder) {
+        checkOpen();
+        fill(endpoint(builder));
+    }
+
+    public PoolStats getStats() {
+        return stats;
+    }
+
+    public int getIdleCount(String username, String host, int port) {
+        Endpoint ep = endpoints.get(SshClient.endpoint(username, host, port));
+        if (ep == null) {
+            return 0;
+        }
+        synchronized (ep) {
+            return ep.idle.size();
+        }
+    }
+
+    public int getActiveCount(String username, String host, int port) {
+        Endpoint ep = endpoints.get(SshClient.endpoint(username, host, port));
+        if (ep == null) {
+            return 0;
+        }
+        synchronized (ep) {
+            return ep.borrowed.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (Endpoint ep : endpoints.values()) {
+            List<PooledClient> idle;
+            synchronized (ep) {
+                idle = new ArrayList<>(ep.idle);
+                ep.total -= ep.idle.size();
+                ep.idle.clear();
+                ep.notifyAll();
+            }
+            for (PooledClient pc : idle) {
+                destroy(pc.client);
+            }
+        }
+    }
+
+    private SshClient lent(SshClient client, long start, boolean waited) {
+        stats.borrows.incrementAndGet();
+        if (waited) {
+            stats.waitTimeMillis.addAndGet(System.currentTimeMillis() - start);
+        }
+        return client;
+    }
+
+    private boolean validate(PooledClient pc) {
+        if (!factory.isOpen(pc.client)) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pc.idleSince < validateAfterMillis) {
+            return true;
+        }
+        return factory.validate(pc.client);
+    }
+
+    /**
+     * Evict idle clients that are dead or idle for too long, keeping at least
+     * the minimum per endpoint, then top endpoints back up to the minimum.
+     */
+    void maintain() {
+        long now = System.currentTimeMillis();
+        for (Endpoint ep : endpoints.values()) {
+            List<SshClient> evicted = new ArrayList<>();
+            synchronized (ep) {
+                // oldest entries sit at the tail
+                for (Iterator<PooledClient> iter = ep.idle.descendingIterator(); iter.hasNext(); ) {
+                    PooledClient pc = iter.next();
+                    boolean expired = now - pc.idleSince > maxIdleMillis && ep.total > minSessions;
+                    if (expired || !factory.isOpen(pc.client)) {
+                        iter.remove();
+                        ep.total--;
+                        evicted.add(pc.client);
+                    }
+                }
+                if (!evicted.isEmpty()) {
+                    ep.notifyAll();
+                }
+            }
+            for (SshClient client : evicted) {
+                destroy(client);
+                stats.evictions.incrementAndGet();
+            }
+            try {
+                fill(ep);
+            } catch (RuntimeException e) {
+                // endpoint unreachable right now, retry on the next run
+            }
+        }
+    }
+
+    private void fill(Endpoint ep) {
+        while (!closed) {
+            synchronized (ep) {
+                if (ep.total >= minSessions || ep.total >= maxSessions) {
+                    return;
+                }
+                ep.total++;
+            }
+            SshClient client;
+            try {
+                client = factory.create(ep.builder);
+                stats.creations.incrementAndGet();
+            } catch (RuntimeException e) {
+                synchronized (ep) {
+                    ep.total--;
+                    ep.notifyAll();
+                }
+                throw e;
+            }
+            synchronized (ep) {
+                ep.idle.addLast(new PooledClient(client));
+                ep.notifyAll();
+            }
+        }
+    }
+
+    private Endpoint endpoint(SshClient.Builder builder) {
+        String key = builder.endpoint();
+        Endpoint ep = endpoints.get(key);
+        if (ep == null) {
+            Endpoint created = new Endpoint(key, builder);
+            ep = endpoints.putIfAbsent(key, created);
+            if (ep == null) {
+                ep = created;
+            }
+        }
+        if (!ep.builder.sameSettings(builder)) {
+            throw new IllegalArgumentException("Sessions to " + key + " are pooled with other settings.");
+        }
+        return ep;
+    }
+
+    private Endpoint borrowedFrom(SshClient client) {
+        Endpoint ep = endpoints.get(client.endpoint());
+        if (ep == null) {
+            throw new IllegalArgumentException("Client doesn't belong to this pool: " + client.endpoint());
+        }
+        synchronized (ep) {
+            if (!ep.borrowed.contains(client)) {
+                throw new IllegalArgumentException("Client isn't borrowed from this pool: " + client.endpoint());
+            }
+        }
+        return ep;
+    }
+
+    private void destroy(SshClient client) {
+        try {
+            factory.close(client);
+        } catch (RuntimeException e) {
+            // already broken
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new SshException("Pool is closed.");
+        }
+    }
+
+    private static class Endpoint {
+        final String key;
+        final SshClient.Builder builder;
+        // most recently returned first
+        final Deque<PooledClient> idle = new ArrayDeque<>();
+        final Set<SshClient> borrowed = Collections.newSetFromMap(new IdentityHashMap<SshClient, Boolean>());
+        // idle + borrowed + being created
+        int total;
+
+        Endpoint(String key, SshClient.Builder builder) {
+            this.key = key;
+            this.builder = builder;
+        }
+    }
+
+    /**
+     * Opens, checks and closes the pooled clients; tests stub it.
+     */
+    interface ClientFactory {
+        SshClient create(SshClient.Builder builder);
+
+        boolean isOpen(SshClient client);
+
+        /**
+         * @return false if the client doesn't answer
+         */
+        boolean validate(SshClient client);
+
+        void close(SshClient client);
+    }
+
+    private static class ConnectingFactory implements ClientFactory {
+        @Override
+        public SshClient create(SshClient.Builder builder) {
+            return builder.create();
+        }
+
+        @Override
+        public boolean isOpen(SshClient client) {
+            return client.isOpen();
+        }
+
+        @Override
+        public boolean validate(SshClient client) {
+            return client.validate();
+        }
+
+        @Override
+        public void close(SshClient client) {
+            client.close();
+        }
+    }
+
+    private static class PooledClient {
+        final SshClient client;
+        final long idleSince = System.currentTimeMillis();
+
+        PooledClient(SshClient client) {
+            this.client = client;
+        }
+    }
+
+    public static class Builder {
+
+        private int minSessions = 0;
+        private int maxSessions = 8;
+        private long maxWaitMillis = TimeUnit.SECONDS.toMillis(30);
+        private long maxIdleMillis = TimeUnit.MINUTES.toMillis(5);
+        private long validateAfterMillis = TimeUnit.SECONDS.toMillis(30);
+        private long evictionIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+        private ClientFactory factory;
+
+        private Builder() {
+        }
+
+        /**
+         * Sessions kept open per endpoint even when idle.
+         */
+        public Builder minSessions(int minSessions) {
+            if (minSessions < 0) {
+                throw new IllegalArgumentException("Min sessions can't be negative.");
+            }
+            this.minSessions = minSessions;
+            return this;
+        }
+
+        /**
+         * Upper bound of sessions, idle or borrowed, per endpoint.
+         */
+        public Builder maxSessions(int maxSessions) {
+            if (maxSessions <= 0) {
+                throw new IllegalArgumentException("Max sessions must be positive.");
+            }
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        /**
+         * How long {@code borrow} blocks when an endpoint is exhausted.
+         */
+        public Builder maxWait(long time, TimeUnit unit) {
+            this.maxWaitMillis = unit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * Idle time after which a session above the minimum is closed.
+         */
+        public Builder maxIdleTime(long time, TimeUnit unit) {
+            this.maxIdleMillis = unit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * Idle sessions older than this make an SFTP round trip before being
+         * lent out.
+         */
+        public Builder validateAfter(long time, TimeUnit unit) {
+            this.validateAfterMillis = unit.toMillis(time);
+            return this;
+        }
+
+        public Builder evictionInterval(long time, TimeUnit unit) {
+            if (time <= 0) {
+                throw new IllegalArgumentException("Eviction interval must be positive.");
+            }
+            this.evictionIntervalMillis = unit.toMillis(time);
+            return this;
+        }
+
+        Builder factory(ClientFactory factory) {
+            this.factory = factory;
+            return this;
+        }
+
+        public SshClientPool build() {
+            if (minSessions > maxSessions) {
+                throw new IllegalArgumentException("Min sessions can't exceed max sessions.");
+            }
+            return new SshClientPool(this);
+        }
+    }
+}
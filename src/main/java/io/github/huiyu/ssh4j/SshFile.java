@@ -16,6 +16,18 @@ public class SshFile {
     private Date lastAccessTime;
     private Date lastModifiedTime;
 
+    private int uid;
+    private int gid;
+    private int mode;
+    private long accessTime;
+    private long modifiedTime;
+    // whether the times were set at all, the dates are null otherwise
+    private boolean hasAccessTime;
+    private boolean hasModifiedTime;
+
+    // resolves owner and group on first access, null for a numeric-only stat
+    private IdentityCache identities;
+
     public String getName() {
         return name;
     }
@@ -56,7 +68,15 @@ public class SshFile {
         this.permission = permission;
     }
 
+    /**
+     * The owner name. If the file came from {@link SshClient#getFile(String)}
+     * the name is resolved on first call; for {@link SshClient#stat(String)} it
+     * stays null, use {@link #getUid()}.
+     */
     public String getOwner() {
+        if (owner == null && identities != null) {
+            owner = identities.userName(uid);
+        }
         return owner;
     }
 
@@ -64,7 +84,13 @@ public class SshFile {
         this.owner = owner;
     }
 
+    /**
+     * The group name, resolved like {@link #getOwner()}.
+     */
     public String getGroup() {
+        if (group == null && identities != null) {
+            group = identities.groupName(gid);
+        }
         return group;
     }
 
@@ -73,19 +99,86 @@ public class SshFile {
     }
 
     public Date getLastAccessTime() {
+        if (lastAccessTime == null && hasAccessTime) {
+            lastAccessTime = new Date(accessTime * 1000L);
+        }
         return lastAccessTime;
     }
 
     public void setLastAccessTime(Date lastAccessTime) {
         this.lastAccessTime = lastAccessTime;
+        this.accessTime = lastAccessTime == null ? 0 : lastAccessTime.getTime() / 1000L;
+        this.hasAccessTime = lastAccessTime != null;
     }
 
     public Date getLastModifiedTime() {
+        if (lastModifiedTime == null && hasModifiedTime) {
+            lastModifiedTime = new Date(modifiedTime * 1000L);
+        }
         return lastModifiedTime;
     }
 
     public void setLastModifiedTime(Date lastModifiedTime) {
         this.lastModifiedTime = lastModifiedTime;
+        this.modifiedTime = lastModifiedTime == null ? 0 : lastModifiedTime.getTime() / 1000L;
+        this.hasModifiedTime = lastModifiedTime != null;
+    }
+
+    public int getUid() {
+        return uid;
+    }
+
+    public void setUid(int uid) {
+        this.uid = uid;
+    }
+
+    public int getGid() {
+        return gid;
+    }
+
+    public void setGid(int gid) {
+        this.gid = gid;
+    }
+
+    /**
+     * Raw {@code st_mode}: file type and permission bits.
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Last access time in seconds since the epoch, 0 if not set.
+     */
+    public long getAccessTime() {
+        return accessTime;
+    }
+
+    public void setAccessTime(long accessTime) {
+        this.accessTime = accessTime;
+        this.hasAccessTime = true;
+        this.lastAccessTime = null;
+    }
+
+    /**
+     * Last modification time in seconds since the epoch, 0 if not set.
+     */
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    public void setModifiedTime(long modifiedTime) {
+        this.modifiedTime = modifiedTime;
+        this.hasModifiedTime = true;
+        this.lastModifiedTime = null;
+    }
+
+    void setIdentities(IdentityCache identities) {
+        this.identities = identities;
     }
 
     public boolean isDirectory() {
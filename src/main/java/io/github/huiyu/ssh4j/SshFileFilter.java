@@ -0,0 +1,9 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Selects remote files.
+ */
+public interface SshFileFilter {
+
+    boolean accept(SshFile file);
+}
@@ -0,0 +1,12 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Receives directory entries one at a time.
+ */
+public interface SshFileHandler {
+
+    /**
+     * @return true to receive the next entry, false to stop
+     */
+    boolean handle(SshFile file);
+}
@@ -0,0 +1,22 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Visitor of {@link SshClient#walkFileTree}. Callbacks never run concurrently,
+ * but they may come from different threads and directories are visited in no
+ * particular order.
+ */
+public interface SshFileVisitor {
+
+    /**
+     * Called for every directory before it is read. Return
+     * {@link VisitResult#SKIP_SUBTREE} to prune it.
+     */
+    VisitResult preVisitDirectory(SshFile dir);
+
+    VisitResult visitFile(SshFile file);
+
+    /**
+     * Called when a directory can't be read or a link can't be followed.
+     */
+    VisitResult visitFileFailed(String path, SshException e);
+}
@@ -0,0 +1,20 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * How {@link SshClient#walkFileTree} treats symbolic links.
+ */
+public enum SymlinkPolicy {
+    /**
+     * Links are not visited.
+     */
+    SKIP,
+    /**
+     * Links are visited as files and never followed.
+     */
+    REPORT,
+    /**
+     * Links are visited as what they point to; linked directories are read
+     * unless they were already read through another path.
+     */
+    FOLLOW
+}
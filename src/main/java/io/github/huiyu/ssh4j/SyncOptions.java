@@ -0,0 +1,54 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Options of {@link SshClient#syncFromLocal(String, String, SyncOptions)}.
+ */
+public class SyncOptions {
+
+    private int concurrency = 4;
+    private boolean checksum = false;
+    private boolean delete = false;
+
+    /**
+     * Number of files compared or uploaded at once, each on its own SFTP
+     * channel.
+     */
+    public SyncOptions concurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Compare the content of files whose size matches but whose modification
+     * time doesn't, instead of uploading them. Costs a read of both copies,
+     * which is much cheaper than sending files that only had their mtime
+     * changed (e.g. by a fresh checkout).
+     */
+    public SyncOptions checksum(boolean checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    /**
+     * Delete remote files and directories that don't exist locally.
+     */
+    public SyncOptions delete(boolean delete) {
+        this.delete = delete;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isChecksum() {
+        return checksum;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+}
@@ -0,0 +1,287 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static io.github.huiyu.ssh4j.TarOutputStream.BLOCK_SIZE;
+
+/**
+ * Reads a tar archive entry by entry; {@link #read(byte[], int, int)} reads
+ * the data of the current entry.
+ * <p>
+ * Understands ustar, GNU long names and the path, size and mtime records of
+ * pax headers, which is what GNU tar, bsdtar and busybox write.
+ */
+class TarInputStream extends FilterInputStream {
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long remaining;
+    private long padding;
+    private boolean ended;
+
+    TarInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Skip what is left of the current entry and read the next header.
+     *
+     * @return the entry, or null at the end of the archive
+     */
+    Entry getNextEntry() throws IOException {
+        String longName = null;
+        String paxName = null;
+        long paxSize = -1;
+        long paxMtime = -1;
+        while (true) {
+            skipEntry();
+            if (ended || !readHeader()) {
+                ended = true;
+                return null;
+            }
+            byte type = header[156];
+            long size = number(124, 12);
+            remaining = size;
+            padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+
+            if (type == TarOutputStream.TYPE_GNU_LONG_NAME) {
+                longName = string(readData(size), 0, (int) size);
+            } else if (type == TarOutputStream.TYPE_PAX_HEADER) {
+                byte[] data = readData(size);
+                for (int i = 0; i < data.length; ) {
+                    // "<length> <key>=<value>\n", the length counting the whole record
+                    int space = indexOf(data, (byte) ' ', i);
+                    int length = Integer.parseInt(string(data, i, space));
+                    int equals = indexOf(data, (byte) '=', space);
+                    String key = string(data, space + 1, equals);
+                    String value = new String(data, equals + 1, i + length - equals - 2, Charsets.UTF_8);
+                    if ("path".equals(key)) {
+                        paxName = value;
+                    } else if ("size".equals(key)) {
+                        paxSize = Long.parseLong(value);
+                    } else if ("mtime".equals(key)) {
+                        paxMtime = (long) (Double.parseDouble(value) * 1000);
+                    }
+                    i += length;
+                }
+            } else if (type != TarOutputStream.TYPE_PAX_GLOBAL_HEADER) {
+                String name = paxName != null ? paxName : longName != null ? longName : headerName();
+                if (paxSize >= 0) {
+                    size = paxSize;
+                    remaining = size;
+                    padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+                }
+                if (type == TarOutputStream.TYPE_DIRECTORY || type == TarOutputStream.TYPE_HARD_LINK) {
+                    // no data, whatever the size says
+                    remaining = 0;
+                    padding = 0;
+                }
+                long mtime = paxMtime >= 0 ? paxMtime : number(136, 12) * 1000;
+                String linkName = string(header, 157, 257);
+                return new Entry(name, type, (int) number(100, 8), mtime, size, linkName);
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.min(n, remaining);
+        ByteStreams.skipFully(in, skipped);
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void skipEntry() throws IOException {
+        ByteStreams.skipFully(in, remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    private byte[] readData(long size) throws IOException {
+        byte[] data = new byte[(int) size];
+        ByteStreams.readFully(in, data);
+        remaining = 0;
+        return data;
+    }
+
+    /**
+     * @return false at the zero block ending the archive, or at the end of
+     * the stream
+     */
+    private boolean readHeader() throws IOException {
+        int n = ByteStreams.read(in, header, 0, BLOCK_SIZE);
+        if (n == 0) {
+            return false;
+        }
+        if (n < BLOCK_SIZE) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        long sum = 0;
+        boolean zero = true;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            zero &= header[i] == 0;
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        if (zero) {
+            return false;
+        }
+        if (sum != number(148, 8)) {
+            throw new IOException("Corrupt tar header");
+        }
+        return true;
+    }
+
+    private String headerName() {
+        String name = string(header, 0, 100);
+        // ustar splits long names into prefix and name, the GNU format uses
+        // the field for other things
+        if (header[257] == 'u' && header[262] == 0 && header[345] != 0) {
+            name = string(header, 345, 500) + "/" + name;
+        }
+        return name;
+    }
+
+    /**
+     * An octal field, or a base-256 one if its high bit is set.
+     */
+    private long number(int offset, int length) {
+        long value = 0;
+        if ((header[offset] & 0x80) != 0) {
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = value << 8 | header[i] & 0xff;
+            }
+            return value;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = value << 3 | b - '0';
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Bytes {@code [from, to)} up to the first NUL.
+     */
+    private static String string(byte[] b, int from, int to) {
+        int end = from;
+        while (end < to && b[end] != 0) {
+            end++;
+        }
+        return new String(b, from, end - from, Charsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] b, byte value, int from) throws IOException {
+        for (int i = from; i < b.length; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        throw new IOException("Corrupt pax header");
+    }
+
+    /**
+     * Header of an archive entry.
+     */
+    static class Entry {
+
+        private final String name;
+        private final byte type;
+        private final int mode;
+        private final long modifiedTime;
+        private final long size;
+        private final String linkName;
+
+        Entry(String name, byte type, int mode, long modifiedTime, long size, String linkName) {
+            this.name = name;
+            this.type = type;
+            this.mode = mode;
+            this.modifiedTime = modifiedTime;
+            this.size = size;
+            this.linkName = linkName;
+        }
+
+        /**
+         * Path relative to the archive root, without a trailing '/'.
+         */
+        String getName() {
+            return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        }
+
+        boolean isDirectory() {
+            return type == TarOutputStream.TYPE_DIRECTORY;
+        }
+
+        boolean isFile() {
+            // old archives use NUL for regular files
+            return type == TarOutputStream.TYPE_FILE || type == 0;
+        }
+
+        /**
+         * A hard link to an earlier entry, named by {@link #getLinkName()}.
+         */
+        boolean isHardLink() {
+            return type == TarOutputStream.TYPE_HARD_LINK;
+        }
+
+        char getType() {
+            return (char) type;
+        }
+
+        int getMode() {
+            return mode;
+        }
+
+        /**
+         * Modification time in milliseconds.
+         */
+        long getModifiedTime() {
+            return modifiedTime;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getLinkName() {
+            return linkName;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.base.Charsets;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive (POSIX ustar) entry by entry, for any tar to extract.
+ * <p>
+ * Names too long for the ustar fields are sent as GNU long names, sizes
+ * beyond the octal field in base-256, both of which GNU tar, bsdtar and
+ * busybox read.
+ */
+class TarOutputStream extends FilterOutputStream {
+
+    static final int BLOCK_SIZE = 512;
+
+    static final byte TYPE_FILE = '0';
+    static final byte TYPE_HARD_LINK = '1';
+    static final byte TYPE_DIRECTORY = '5';
+    static final byte TYPE_GNU_LONG_NAME = 'L';
+    static final byte TYPE_PAX_HEADER = 'x';
+    static final byte TYPE_PAX_GLOBAL_HEADER = 'g';
+
+    static final String GNU_LONG_NAME = "././@LongLink";
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    // the largest size the 11 octal digits hold
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private final byte[] buffer = new byte[32 * 1024];
+    private boolean finished;
+
+    TarOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @param name  path relative to the archive root, '/' separated
+     * @param mtime modification time in milliseconds
+     */
+    void putDirectory(String name, int mode, long mtime) throws IOException {
+        putHeader(name.endsWith("/") ? name : name + "/", TYPE_DIRECTORY, mode, mtime, 0);
+    }
+
+    /**
+     * Add a file of the given size with the contents of {@code in}. The entry
+     * always holds {@code size} bytes: a source that turns out shorter is
+     * padded with zeros, a longer one is cut.
+     *
+     * @param mtime modification time in milliseconds
+     * @return whether the source had exactly {@code size} bytes
+     */
+    boolean putFile(String name, int mode, long mtime, long size, InputStream in) throws IOException {
+        putHeader(name, TYPE_FILE, mode, mtime, size);
+        long remaining = size;
+        int n = 0;
+        while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        boolean complete = remaining == 0 && in.read() < 0;
+        Arrays.fill(buffer, (byte) 0);
+        while (remaining > 0) {
+            int pad = (int) Math.min(buffer.length, remaining);
+            out.write(buffer, 0, pad);
+            remaining -= pad;
+        }
+        pad(size);
+        return complete;
+    }
+
+    /**
+     * End the archive with its two zero blocks, leaving the stream open.
+     */
+    void finish() throws IOException {
+        if (!finished) {
+            out.write(new byte[BLOCK_SIZE * 2]);
+            out.flush();
+            finished = true;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void putHeader(String name, byte type, int mode, long mtime, long size) throws IOException {
+        byte[] bytes = name.getBytes(Charsets.UTF_8);
+        int split = bytes.length <= NAME_LENGTH ? 0 : prefixSplit(bytes);
+        if (split < 0) {
+            byte[] longName = Arrays.copyOf(bytes, bytes.length + 1);
+            writeHeader(GNU_LONG_NAME.getBytes(Charsets.UTF_8), 0, TYPE_GNU_LONG_NAME, 0, 0, longName.length);
+            out.write(longName);
+            pad(longName.length);
+            // readers that know long names ignore the truncated one
+            writeHeader(Arrays.copyOf(bytes, NAME_LENGTH), 0, type, mode, mtime, size);
+        } else {
+            writeHeader(bytes, split, type, mode, mtime, size);
+        }
+    }
+
+    /**
+     * @return where to split a long name into prefix and name, after a '/',
+     * or -1 if it doesn't fit
+     */
+    private static int prefixSplit(byte[] name) {
+        for (int i = Math.max(0, name.length - NAME_LENGTH - 1); i <= PREFIX_LENGTH && i < name.length; i++) {
+            if (name[i] == '/' && i > 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param split length of the name's prefix going in the prefix field,
+     *              including the '/' that the field leaves out, or 0
+     */
+    private void writeHeader(byte[] name, int split, byte type, int mode, long mtime, long size) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(name, split, header, 0, Math.min(name.length - split, NAME_LENGTH));
+        octal(mode & 07777, 100, 8);
+        octal(0, 108, 8);
+        octal(0, 116, 8);
+        if (size <= MAX_OCTAL_SIZE) {
+            octal(size, 124, 12);
+        } else {
+            binary(size, 124, 12);
+        }
+        octal(Math.max(0, mtime / 1000), 136, 12);
+        header[156] = type;
+        System.arraycopy("ustar\00000".getBytes(Charsets.US_ASCII), 0, header, 257, 8);
+        if (split > 0) {
+            System.arraycopy(name, 0, header, 345, split - 1);
+        }
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        octal(sum, 148, 7);
+        out.write(header);
+    }
+
+    /**
+     * Zero-padded octal digits followed by a NUL.
+     */
+    private void octal(long value, int offset, int length) {
+        String digits = Long.toOctalString(value);
+        int zeros = length - 1 - digits.length();
+        for (int i = 0; i < length - 1; i++) {
+            header[offset + i] = (byte) (i < zeros ? '0' : digits.charAt(i - zeros));
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    /**
+     * Big-endian base-256, marked by the high bit of the first byte.
+     */
+    private void binary(long value, int offset, int length) {
+        for (int i = offset + length - 1; i > offset; i--) {
+            header[i] = (byte) value;
+            value >>>= 8;
+        }
+        header[offset] = (byte) 0x80;
+    }
+
+    private void pad(long length) throws IOException {
+        int rest = (int) (length % BLOCK_SIZE);
+        if (rest != 0) {
+            out.write(new byte[BLOCK_SIZE - rest]);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static io.github.huiyu.ssh4j.PathUtil.createPath;
+import static io.github.huiyu.ssh4j.SourcedEnvironment.quote;
+
+/**
+ * Recursive copies as one tar stream through an exec channel, the remote
+ * {@code tar} packing or unpacking the tree.
+ * <p>
+ * Instead of an SFTP open, write and close per file and a round trip per
+ * directory, the whole tree flows as a single stream at the speed of the
+ * channel. The archive is produced and consumed on the fly on both sides,
+ * nothing is written to disk but the copied files. Modes and modification
+ * times go with the entries; owners don't.
+ */
+class TarTransfer {
+
+    // data in flight between the transport thread and the extracting one
+    private static final int PIPE_SIZE = 1024 * 1024;
+
+    private static final PosixFilePermission[] PERMISSIONS = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private final SshClient client;
+    private final TransferOptions options;
+    private final TransferResult result = new TransferResult();
+
+    TarTransfer(SshClient client, TransferOptions options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    /**
+     * Copy the contents of a local directory into a remote directory, created
+     * if missing. Without {@link TransferOptions#overwrite(boolean)} the
+     * remote {@code tar} keeps existing files, GNU tar reporting them as
+     * errors.
+     */
+    TransferResult upload(File srcDir, String dst) {
+        String command = "mkdir -p " + quote(dst) + " && tar -x" + (options.isOverwrite() ? "" : "k")
+                + "pf - -C " + quote(dst);
+        CaptureOutputStream err = client.newCapture();
+        RunningCommand cmd = start(command, null, err);
+        try {
+            IOException failure = null;
+            try (TarOutputStream tar = new TarOutputStream(cmd.channel.getOutputStream())) {
+                pack(srcDir, "", dst, tar, cmd);
+            } catch (IOException e) {
+                // most likely tar quit, its error says why
+                failure = e;
+            }
+            finish(cmd, err, srcDir.getPath(), dst, failure);
+        } finally {
+            cmd.cancel();
+        }
+        return result.finish();
+    }
+
+    /**
+     * Copy the contents of a remote directory into a local directory, created
+     * if missing. Symbolic links are followed, like the SFTP copy does.
+     */
+    TransferResult download(String src, File dstDir) {
+        if (dstDir.exists() && !dstDir.isDirectory()) {
+            throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + dstDir);
+        }
+        if (!dstDir.exists()) {
+            if (!dstDir.mkdirs()) {
+                throw new SshException("Failed to create directory: " + dstDir);
+            }
+            result.directoryCreated();
+        }
+
+        final PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        final PipedOutputStream out;
+        try {
+            out = new PipedOutputStream(in);
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+        CaptureOutputStream err = client.newCapture();
+        RunningCommand cmd = start("tar -chf - -C " + quote(src) + " .", out, err);
+        // the sink doesn't close its target, the extraction waits for this
+        cmd.out.whenClosed(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+
+        try {
+            IOException failure = null;
+            try (TarInputStream tar = new TarInputStream(in)) {
+                unpack(tar, src, dstDir);
+                // the rest of the last record
+                ByteStreams.copy(in, ByteStreams.nullOutputStream());
+            } catch (IOException e) {
+                failure = e;
+            }
+            finish(cmd, err, src, dstDir.getPath(), failure);
+        } finally {
+            cmd.cancel();
+        }
+        return result.finish();
+    }
+
+    private RunningCommand start(String command, OutputStream stdout, OutputStream stderr) {
+        try {
+            return client.startCommand(command, stdout, stderr, new CommandLatency());
+        } catch (Exception e) {
+            throw new SshException(e);
+        }
+    }
+
+    /**
+     * Wait for the remote tar and report what went wrong: tar failing says
+     * more than the broken stream it leaves behind.
+     *
+     * @param failure why the stream ended early, or null
+     */
+    private void finish(RunningCommand cmd, CaptureOutputStream err, String src, String dst, IOException failure) {
+        int exitCode = -1;
+        Exception channelFailure = null;
+        try {
+            exitCode = cmd.await();
+        } catch (IOException e) {
+            channelFailure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channelFailure = e;
+        }
+        if (exitCode > 0) {
+            result.failed(src, dst, new SshException("tar exited with " + exitCode + ": " + err.toString().trim()));
+        } else if (failure != null) {
+            result.failed(src, dst, failure);
+        } else if (channelFailure != null) {
+            result.failed(src, dst, channelFailure);
+        }
+    }
+
+    private void pack(File dir, String prefix, String dst, TarOutputStream tar, RunningCommand cmd)
+            throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            result.failed(dir.getPath(), createPath(dst, prefix), new SshException("Failed to list contents of: " + dir));
+            return;
+        }
+        Arrays.sort(children);
+        for (File f : children) {
+            if (cmd.channel.isClosed()) {
+                // tar is gone, what is written now is dropped
+                throw new IOException("Channel closed");
+            }
+            String name = prefix.isEmpty() ? f.getName() : prefix + "/" + f.getName();
+            if (f.isDirectory()) {
+                tar.putDirectory(name, mode(f), f.lastModified());
+                result.directoryCreated();
+                pack(f, name, dst, tar, cmd);
+                continue;
+            }
+
+            long length = f.length();
+            InputStream in;
+            try {
+                in = new FileInputStream(f);
+            } catch (IOException e) {
+                result.failed(f.getPath(), createPath(dst, name), e);
+                continue;
+            }
+            try {
+                if (tar.putFile(name, mode(f), f.lastModified(), length, in)) {
+                    result.fileDone(length);
+                } else {
+                    result.failed(f.getPath(), createPath(dst, name), new SshException("File changed as we read it: " + f));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private void unpack(TarInputStream tar, String src, File dstDir) throws IOException {
+        // directories get their mode and time once their contents are written
+        Map<File, TarInputStream.Entry> dirs = new LinkedHashMap<>();
+        TarInputStream.Entry entry;
+        while ((entry = tar.getNextEntry()) != null) {
+            String name = stripDot(entry.getName());
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            String source = createPath(src, name);
+            File file = new File(dstDir, name);
+
+            // only reading the archive throws IOException, it can go on after the others
+            try {
+                if (unsafe(name) || (entry.isHardLink() && unsafe(stripDot(entry.getLinkName())))) {
+                    throw new SshException("Unsafe path in archive: " + name);
+                }
+                if (entry.isDirectory()) {
+                    if (!file.isDirectory()) {
+                        if (file.exists() || !file.mkdirs()) {
+                            throw new SshException(SshClient.MSG_NOT_A_DIRECTORY + file);
+                        }
+                        result.directoryCreated();
+                    }
+                    dirs.put(file, entry);
+                } else if (entry.isHardLink()) {
+                    prepareFile(file);
+                    link(file, new File(dstDir, stripDot(entry.getLinkName())));
+                    result.fileDone(file.length());
+                } else if (entry.isFile()) {
+                    prepareFile(file);
+                    writeFile(tar, file);
+                    setMode(file, entry.getMode());
+                    file.setLastModified(entry.getModifiedTime());
+                    result.fileDone(entry.getSize());
+                } else {
+                    throw new SshException("Unsupported file type '" + entry.getType() + "': " + source);
+                }
+            } catch (SshException e) {
+                result.failed(source, file.getPath(), e);
+            }
+        }
+
+        List<Map.Entry<File, TarInputStream.Entry>> created = new ArrayList<>(dirs.entrySet());
+        // children before their parents
+        for (int i = created.size() - 1; i >= 0; i--) {
+            File file = created.get(i).getKey();
+            TarInputStream.Entry dir = created.get(i).getValue();
+            try {
+                setMode(file, dir.getMode());
+                file.setLastModified(dir.getModifiedTime());
+            } catch (SshException e) {
+                result.failed(createPath(src, stripDot(dir.getName())), file.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Write the data of the current entry to a file, local failures thrown
+     * as {@link SshException}.
+     */
+    private static void writeFile(TarInputStream tar, File file) throws IOException {
+        byte[] buffer = new byte[32 * 1024];
+        OutputStream out;
+        try {
+            out = new FileOutputStream(file);
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+        try {
+            int n;
+            while ((n = tar.read(buffer, 0, buffer.length)) >= 0) {
+                try {
+                    out.write(buffer, 0, n);
+                } catch (IOException e) {
+                    throw new SshException(e);
+                }
+            }
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new SshException(e);
+            }
+        }
+    }
+
+    private void prepareFile(File file) {
+        if (file.isDirectory()) {
+            throw new SshException("Destination '" + file + "' is a directory.");
+        }
+        if (file.exists()) {
+            if (!options.isOverwrite()) {
+                throw new SshException(SshClient.MSG_FILE_ALREADY_EXISTS + file);
+            }
+            if (!file.delete()) {
+                throw new SshException("Failed to delete: " + file);
+            }
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+    }
+
+    private static void link(File file, File target) {
+        try {
+            try {
+                Files.createLink(file.toPath(), target.toPath());
+            } catch (UnsupportedOperationException e) {
+                Files.copy(target.toPath(), file.toPath());
+            }
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+    }
+
+    private static String stripDot(String name) {
+        return name.startsWith("./") ? name.substring(2) : name;
+    }
+
+    private static boolean unsafe(String name) {
+        return name.startsWith("/") || ("/" + name + "/").contains("/../");
+    }
+
+    /**
+     * Permission bits of a local file, guessed from what Java can tell where
+     * the file system isn't POSIX.
+     */
+    static int mode(File file) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+            int mode = 0;
+            for (int i = 0; i < PERMISSIONS.length; i++) {
+                if (permissions.contains(PERMISSIONS[i])) {
+                    mode |= 1 << i;
+                }
+            }
+            return mode;
+        } catch (UnsupportedOperationException | IOException e) {
+            return file.isDirectory() || file.canExecute() ? 0755 : 0644;
+        }
+    }
+
+    static void setMode(File file, int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mode & 1 << i) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(file.toPath(), permissions);
+        } catch (IOException e) {
+            throw new SshException(e);
+        } catch (UnsupportedOperationException e) {
+            file.setReadable((mode & 0400) != 0);
+            file.setWritable((mode & 0200) != 0);
+            file.setExecutable((mode & 0100) != 0);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of worker threads running tasks that may submit more tasks.
+ * <p>
+ * The queue is bounded: when it is full the submitting thread runs the task
+ * itself, which throttles producers (e.g. a directory listing) to the speed
+ * of the workers without ever blocking a worker on its own queue.
+ */
+class TaskGroup {
+
+    private static final AtomicInteger GROUP_SEQ = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object done = new Object();
+
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    TaskGroup(String name, int threads, int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive.");
+        }
+        final String prefix = "ssh4j-" + name + "-" + GROUP_SEQ.incrementAndGet() + "-";
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    void submit(final Runnable task) {
+        if (cancelled) {
+            return;
+        }
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!cancelled) {
+                        task.run();
+                    }
+                } catch (Throwable t) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                    cancelled = true;
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (done) {
+                            done.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop running tasks that haven't started yet. Running tasks finish.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Wait until every submitted task, including the ones they submitted, is
+     * done. Rethrows the first unexpected task failure.
+     */
+    void await() {
+        try {
+            synchronized (done) {
+                while (pending.get() > 0) {
+                    done.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new SshException(e);
+        }
+
+        Throwable t = failure;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t != null) {
+            throw new SshException(t);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
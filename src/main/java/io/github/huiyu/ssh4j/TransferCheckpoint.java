@@ -0,0 +1,153 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Progress of a resumable single-file transfer, kept in a small local file
+ * while the transfer runs and deleted once it completes.
+ * <p>
+ * It identifies the source by size and modification time, so a later
+ * transfer, possibly by another process, continues the partial destination
+ * only if the source hasn't changed since. The offset tells how far the
+ * transfer got; it resumes at the size of the destination, which may be a
+ * little further.
+ */
+public class TransferCheckpoint {
+
+    public enum Direction {
+        UPLOAD, DOWNLOAD
+    }
+
+    private final Direction direction;
+    private final String source;
+    private final String destination;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final long offset;
+
+    TransferCheckpoint(Direction direction, String source, String destination,
+                       long sourceSize, long sourceModified, long offset) {
+        this.direction = direction;
+        this.source = source;
+        this.destination = destination;
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.offset = offset;
+    }
+
+    /**
+     * Read a checkpoint file.
+     *
+     * @return the checkpoint, or null if the file doesn't exist or isn't a
+     * complete checkpoint
+     */
+    public static TransferCheckpoint load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+        try {
+            return new TransferCheckpoint(
+                    Direction.valueOf(p.getProperty("direction")),
+                    p.getProperty("source"),
+                    p.getProperty("destination"),
+                    Long.parseLong(p.getProperty("sourceSize")),
+                    Long.parseLong(p.getProperty("sourceModified")),
+                    Long.parseLong(p.getProperty("offset")));
+        } catch (RuntimeException e) {
+            // e.g. missing keys of a file truncated by a crash
+            return null;
+        }
+    }
+
+    /**
+     * Write the checkpoint, replacing the file as a whole so that a crash
+     * never leaves half a checkpoint behind.
+     */
+    void save(File file) {
+        Properties p = new Properties();
+        p.setProperty("direction", direction.name());
+        p.setProperty("source", source);
+        p.setProperty("destination", destination);
+        p.setProperty("sourceSize", Long.toString(sourceSize));
+        p.setProperty("sourceModified", Long.toString(sourceModified));
+        p.setProperty("offset", Long.toString(offset));
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            p.store(out, "ssh4j transfer checkpoint");
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+        if (!tmp.renameTo(file)) {
+            // e.g. platforms that don't replace on rename
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new SshException("Failed to write checkpoint: " + file);
+            }
+        }
+    }
+
+    TransferCheckpoint withOffset(long offset) {
+        return new TransferCheckpoint(direction, source, destination, sourceSize, sourceModified, offset);
+    }
+
+    /**
+     * @return whether both describe the same transfer of the same version of
+     * the source
+     */
+    boolean sameTransfer(TransferCheckpoint other) {
+        return other != null
+                && direction == other.direction
+                && source.equals(other.source)
+                && destination.equals(other.destination)
+                && sourceSize == other.sourceSize
+                && sourceModified == other.sourceModified;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    /**
+     * Modification time of the source, in seconds since the epoch.
+     */
+    public long getSourceModified() {
+        return sourceModified;
+    }
+
+    /**
+     * Number of bytes transferred when the checkpoint was written.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferCheckpoint{" + direction + " " + source + " -> " + destination
+                + ", offset=" + offset + "/" + sourceSize + "}";
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.huiyu.ssh4j;
+
+import java.io.File;
+
+/**
+ * Options of a recursive copy between the local host and the remote host.
+ */
+public class TransferOptions {
+
+    private int concurrency = 4;
+    private boolean overwrite = false;
+    private boolean resume = false;
+    private File checkpoint;
+    private ChecksumAlgorithm verify;
+    private boolean tar = false;
+    private long segmentThreshold = Long.MAX_VALUE;
+
+    /**
+     * Number of files moved at once. Each one uses its own SFTP channel, so
+     * values above {@link SshClient.Builder#maxSftpChannels(int)} only queue.
+     */
+    public TransferOptions concurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public TransferOptions overwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+        return this;
+    }
+
+    /**
+     * Continue files partially copied by an earlier, interrupted transfer
+     * instead of failing or starting over. A partial destination is only
+     * continued if its first and last bytes match the source.
+     */
+    public TransferOptions resume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    /**
+     * Record the progress of a resumable single-file copy in a local file, so
+     * that a later copy (e.g. by a new process after a crash) only continues
+     * the destination if the source is the same version. The file is deleted
+     * when the copy completes. Ignored for directories.
+     *
+     * @see TransferCheckpoint#load(File)
+     */
+    public TransferOptions checkpoint(File checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Verify every copied file with the given digest, or not at all if null.
+     * The local digest is computed while the bytes stream through; the remote
+     * one by a command on the host, which for downloads runs while the file is
+     * being read. A mismatch fails the file.
+     */
+    public TransferOptions verify(ChecksumAlgorithm verify) {
+        this.verify = verify;
+        return this;
+    }
+
+    /**
+     * Copy directories as one tar stream through an exec channel, packed and
+     * unpacked on the fly, instead of file by file over SFTP. Much faster for
+     * trees of many small files, as no file costs a round trip. Needs
+     * {@code tar} on the host; modes and modification times are kept.
+     * Concurrency, resume and verify don't apply to directories copied so.
+     */
+    public TransferOptions tar(boolean tar) {
+        this.tar = tar;
+        return this;
+    }
+
+    /**
+     * Split a single file of at least this many bytes into up to
+     * {@link #concurrency(int)} ranges copied at once over separate SFTP
+     * channels, so that one large file can fill a fast link with a long round
+     * trip. The ranges are written into a {@code .part} file renamed to the
+     * destination once complete; with {@link #verify(ChecksumAlgorithm)} each
+     * range is verified on its own. Off by default; not combined with resume.
+     */
+    public TransferOptions segmentThreshold(long segmentThreshold) {
+        if (segmentThreshold <= 0) {
+            throw new IllegalArgumentException("Segment threshold must be positive.");
+        }
+        this.segmentThreshold = segmentThreshold;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isOverwrite() {
+        return overwrite;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public File getCheckpoint() {
+        return checkpoint;
+    }
+
+    public ChecksumAlgorithm getVerify() {
+        return verify;
+    }
+
+    public boolean isTar() {
+        return tar;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.huiyu.ssh4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a recursive copy. A failing file doesn't stop the others; it is
+ * reported in {@link #getFailures()}.
+ */
+public class TransferResult {
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong resumedBytes = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+    private final long startTime = System.currentTimeMillis();
+    private volatile long elapsedMillis;
+
+    void fileDone(long length) {
+        files.incrementAndGet();
+        bytes.addAndGet(length);
+    }
+
+    void resumed(long length) {
+        resumedBytes.addAndGet(length);
+    }
+
+    void fileSkipped(long length) {
+        skippedFiles.incrementAndGet();
+        skippedBytes.addAndGet(length);
+    }
+
+    void deleted() {
+        deleted.incrementAndGet();
+    }
+
+    void directoryCreated() {
+        directories.incrementAndGet();
+    }
+
+    void failed(String source, String destination, Exception cause) {
+        failures.add(new Failure(source, destination, cause));
+    }
+
+    TransferResult finish() {
+        elapsedMillis = System.currentTimeMillis() - startTime;
+        return this;
+    }
+
+    /**
+     * Number of files copied.
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * Number of directories created on the destination.
+     */
+    public long getDirectories() {
+        return directories.get();
+    }
+
+    /**
+     * Number of file bytes copied.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Number of file bytes found at the destination by resumed copies, i.e.
+     * counted in {@link #getBytes()} but not sent again.
+     */
+    public long getResumedBytes() {
+        return resumedBytes.get();
+    }
+
+    /**
+     * Number of files a sync found unchanged and didn't copy.
+     */
+    public long getSkippedFiles() {
+        return skippedFiles.get();
+    }
+
+    /**
+     * Number of bytes of the files a sync didn't copy, i.e. the bytes saved.
+     */
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    /**
+     * Number of files and directories a sync deleted from the destination, a
+     * directory counting once with its contents.
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    public List<Failure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{files=" + getFiles()
+                + ", directories=" + getDirectories()
+                + ", bytes=" + getBytes()
+                + ", resumedBytes=" + getResumedBytes()
+                + ", skippedFiles=" + getSkippedFiles()
+                + ", skippedBytes=" + getSkippedBytes()
+                + ", deleted=" + getDeleted()
+                + ", failures=" + failures.size()
+                + ", elapsedMillis=" + elapsedMillis + "}";
+    }
+
+    public static class Failure {
+
+        private final String source;
+        private final String destination;
+        private final Exception cause;
+
+        Failure(String source, String destination, Exception cause) {
+            this.source = source;
+            this.destination = destination;
+            this.cause = cause;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public Exception getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + destination + ": " + cause;
+        }
+    }
+}
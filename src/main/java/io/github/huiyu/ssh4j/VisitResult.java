@@ -0,0 +1,16 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * What {@link SshClient#walkFileTree} does after a visitor callback.
+ */
+public enum VisitResult {
+    CONTINUE,
+    /**
+     * Don't read the directory just visited; same as CONTINUE for files.
+     */
+    SKIP_SUBTREE,
+    /**
+     * Stop the walk. Directory reads already running are abandoned.
+     */
+    TERMINATE
+}
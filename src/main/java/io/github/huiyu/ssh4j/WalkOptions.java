@@ -0,0 +1,71 @@
+package io.github.huiyu.ssh4j;
+
+/**
+ * Options of {@link SshClient#walkFileTree(String, SshFileVisitor, WalkOptions)}.
+ */
+public class WalkOptions {
+
+    private int concurrency = 4;
+    private int maxDepth = Integer.MAX_VALUE;
+    private SshFileFilter filter;
+    private SymlinkPolicy symlinkPolicy = SymlinkPolicy.REPORT;
+
+    /**
+     * Number of directories read at once, each on its own SFTP channel. The
+     * visitor is called by one thread at a time and never while a channel is
+     * held, so it may use the client; with a concurrency at or above the
+     * client's maximum of SFTP channels, its SFTP calls then wait for a
+     * directory read to finish.
+     */
+    public WalkOptions concurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Depth of the deepest entries visited; the start directory is at depth 0,
+     * its entries at depth 1.
+     */
+    public WalkOptions maxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Max depth can't be negative.");
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Entries rejected by the filter are neither visited nor read.
+     */
+    public WalkOptions filter(SshFileFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public WalkOptions symlinkPolicy(SymlinkPolicy symlinkPolicy) {
+        if (symlinkPolicy == null) {
+            throw new NullPointerException("Symlink policy can't be null.");
+        }
+        this.symlinkPolicy = symlinkPolicy;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public SshFileFilter getFilter() {
+        return filter;
+    }
+
+    public SymlinkPolicy getSymlinkPolicy() {
+        return symlinkPolicy;
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.Compression;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * SSH transport compression on the JDK's zlib, installed by
+ * {@link SshClient.Builder#compression(int)}; not meant to be used directly.
+ * <p>
+ * JSch instantiates one per direction of a session: outgoing packets are
+ * compressed at the configured level, incoming ones inflated whatever level
+ * the server chose. Each packet ends with a sync flush, so it can be inflated
+ * on arrival.
+ */
+public class ZlibCompression implements Compression {
+
+    // room after the packet for padding and MAC, which JSch adds in place
+    private static final int BUFFER_MARGIN = 128;
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    private byte[] input = new byte[CHUNK_SIZE];
+    private byte[] output = new byte[CHUNK_SIZE];
+    private int level;
+
+    @Override
+    public void init(int type, int level) {
+        if (type == DEFLATER) {
+            this.level = level;
+            this.deflater = new Deflater(level);
+        } else if (type == INFLATER) {
+            this.inflater = new Inflater();
+        }
+    }
+
+    /**
+     * Compress {@code buf[start, len[0])} into {@code buf} from {@code start}
+     * on, growing it if needed.
+     *
+     * @return the buffer holding the result, whose end is put in {@code len[0]}
+     */
+    @Override
+    public byte[] compress(byte[] buf, int start, int[] len) {
+        int length = len[0] - start;
+        beforeCompress(length);
+
+        // the deflater reads its input lazily, and the output overwrites it
+        if (input.length < length) {
+            input = new byte[length];
+        }
+        System.arraycopy(buf, start, input, 0, length);
+        deflater.setInput(input, 0, length);
+
+        int end = start;
+        int n;
+        do {
+            n = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+            if (buf.length < end + n + BUFFER_MARGIN) {
+                byte[] grown = new byte[(end + n + BUFFER_MARGIN) * 2];
+                System.arraycopy(buf, 0, grown, 0, end);
+                buf = grown;
+            }
+            System.arraycopy(output, 0, buf, end, n);
+            end += n;
+        } while (n == output.length || !deflater.needsInput());
+
+        afterCompress(length, end - start);
+        len[0] = end;
+        return buf;
+    }
+
+    /**
+     * Inflate {@code len[0]} bytes of {@code buf} from {@code start} on into
+     * {@code buf} from {@code start} on, growing it if needed.
+     *
+     * @return the buffer holding the result, whose length is put in
+     * {@code len[0]}, or null if the data is corrupt
+     */
+    @Override
+    public byte[] uncompress(byte[] buf, int start, int[] len) {
+        inflater.setInput(buf, start, len[0]);
+        int total = 0;
+        try {
+            while (true) {
+                if (total == output.length) {
+                    byte[] grown = new byte[output.length * 2];
+                    System.arraycopy(output, 0, grown, 0, total);
+                    output = grown;
+                }
+                int n = inflater.inflate(output, total, output.length - total);
+                if (n == 0) {
+                    break;
+                }
+                total += n;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+
+        if (buf.length < start + total) {
+            byte[] grown = new byte[start + total];
+            System.arraycopy(buf, 0, grown, 0, start);
+            buf = grown;
+        }
+        System.arraycopy(output, 0, buf, start, total);
+        len[0] = total;
+        return buf;
+    }
+
+    /**
+     * Called before compressing a packet of the given size, e.g. to change
+     * the level.
+     */
+    void beforeCompress(int length) {
+    }
+
+    /**
+     * Called after compressing a packet.
+     */
+    void afterCompress(int length, int compressedLength) {
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Takes effect from the next packet on.
+     */
+    void setLevel(int level) {
+        if (level != this.level) {
+            this.level = level;
+            deflater.setLevel(level);
+        }
+    }
+
+    /**
+     * Compression that stops compressing while the data doesn't compress,
+     * installed by {@link SshClient.Builder#adaptiveCompression(int)}.
+     * <p>
+     * The ratio achieved is measured over every {@link #SAMPLE_BYTES} of
+     * outgoing data. When compressing saves less than a tenth, data is sent
+     * stored (deflate level 0, which costs no more than a copy) for the next
+     * {@link #SKIP_BYTES}, after which the configured level is tried again.
+     * Text and logs stay compressed, archives and media pass through.
+     */
+    public static class Adaptive extends ZlibCompression {
+
+        static final int SAMPLE_BYTES = 256 * 1024;
+        static final long SKIP_BYTES = 8 * 1024 * 1024;
+        // compressed/original above which compressing isn't worth it
+        static final double MAX_RATIO = 0.9;
+
+        private int configuredLevel;
+        private long sampleIn;
+        private long sampleOut;
+        private long skipped;
+
+        @Override
+        public void init(int type, int level) {
+            super.init(type, level);
+            this.configuredLevel = level;
+        }
+
+        @Override
+        void beforeCompress(int length) {
+            if (getLevel() == Deflater.NO_COMPRESSION && skipped >= SKIP_BYTES) {
+                // try again, the data may have changed
+                setLevel(configuredLevel);
+                sampleIn = 0;
+                sampleOut = 0;
+            }
+        }
+
+        @Override
+        void afterCompress(int length, int compressedLength) {
+            if (getLevel() == Deflater.NO_COMPRESSION) {
+                skipped += length;
+                return;
+            }
+            sampleIn += length;
+            sampleOut += compressedLength;
+            if (sampleIn >= SAMPLE_BYTES) {
+                if (sampleOut > sampleIn * MAX_RATIO) {
+                    setLevel(Deflater.NO_COMPRESSION);
+                    skipped = 0;
+                }
+                sampleIn = 0;
+                sampleOut = 0;
+            }
+        }
+    }
+}
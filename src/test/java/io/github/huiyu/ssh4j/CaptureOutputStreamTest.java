@@ -0,0 +1,60 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureOutputStreamTest {
+
+    @Test
+    public void testWithinLimits() {
+        CaptureOutputStream out = new CaptureOutputStream(4, 4);
+        write(out, "abcdef");
+        assertEquals("abcdef", out.toString());
+        assertEquals(0, out.getDropped());
+    }
+
+    @Test
+    public void testHeadAndTail() {
+        CaptureOutputStream out = new CaptureOutputStream(3, 4);
+        write(out, "abc");
+        write(out, "defg");
+        write(out, "hi");
+        write(out, "jklmn");
+        assertEquals("abc\n[... 7 bytes dropped ...]\nklmn", out.toString());
+        assertEquals(7, out.getDropped());
+    }
+
+    @Test
+    public void testRingWrapsByteByByte() {
+        CaptureOutputStream out = new CaptureOutputStream(0, 3);
+        for (char c : "0123456789".toCharArray()) {
+            out.write(c);
+        }
+        assertEquals("\n[... 7 bytes dropped ...]\n789", out.toString());
+        assertEquals(7, out.getDropped());
+    }
+
+    @Test
+    public void testNoTail() {
+        CaptureOutputStream out = new CaptureOutputStream(2, 0);
+        write(out, "hello");
+        assertEquals("he\n[... 3 bytes dropped ...]\n", out.toString());
+        assertEquals(3, out.getDropped());
+    }
+
+    @Test
+    public void testCutCharacter() {
+        // the cut falls inside both multibyte characters
+        CaptureOutputStream out = new CaptureOutputStream(1, 1);
+        out.write(new byte[]{(byte) 0xc3, (byte) 0xa9, (byte) 0xc3, (byte) 0xa9}, 0, 4);
+        String text = out.toString();
+        assertTrue(text.contains("[... 2 bytes dropped ...]"));
+        assertFalse(text.contains("\u00e9"));
+    }
+
+    private static void write(CaptureOutputStream out, String s) {
+        byte[] b = s.getBytes();
+        out.write(b, 0, b.length);
+    }
+}
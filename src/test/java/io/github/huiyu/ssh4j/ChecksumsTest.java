@@ -0,0 +1,70 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ChecksumsTest {
+
+    private static final String ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    public void testParseDigests() {
+        Map<String, String> digests = Checksums.parse(
+                ABC + "  /srv/conf/a b.txt\n"
+                        + ABC.toUpperCase() + " */srv/conf/bin\n"
+                        + "\\" + ABC + "  /srv/conf/new\\nline\n"
+                        + "sha256sum: /srv/conf/gone: No such file or directory\n",
+                ChecksumAlgorithm.SHA256);
+        assertEquals(2, digests.size());
+        assertEquals(ABC, digests.get("/srv/conf/a b.txt"));
+        assertEquals(ABC, digests.get("/srv/conf/bin"));
+        // digests of another length are not lines of this algorithm
+        assertTrue(Checksums.parse(ABC + "  /a\n", ChecksumAlgorithm.MD5).isEmpty());
+    }
+
+    @Test
+    public void testCommand() {
+        assertEquals("md5sum -- '/a b' '/it'\\''s'",
+                Checksums.command(Arrays.asList("/a b", "/it's"), ChecksumAlgorithm.MD5));
+        assertEquals("tail -c +1025 -- '/a b' | head -c 512 | sha256sum",
+                Checksums.command("/a b", 1024, 512, ChecksumAlgorithm.SHA256));
+    }
+
+    @Test
+    public void testDigest() throws IOException {
+        File file = File.createTempFile("digest", ".txt");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write("abc".getBytes("UTF-8"));
+            }
+            assertEquals(ABC, Checksums.digest(file, ChecksumAlgorithm.SHA256));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDigestPrefix() throws IOException {
+        File file = File.createTempFile("digest", ".txt");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write("abcdef".getBytes("UTF-8"));
+            }
+            assertEquals(ABC, Checksums.digest(file, 3, ChecksumAlgorithm.SHA256));
+            try {
+                Checksums.digest(file, 7, ChecksumAlgorithm.SHA256);
+                fail();
+            } catch (IOException expected) {
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.Compression;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Throughput of transport compression by level, data kind and link speed.
+ * <p>
+ * Each level compresses SSH-sized packets of a data kind on one core (the
+ * transport compresses on the thread writing the packet); from the CPU rate
+ * and the ratio follows the payload rate over links of several speeds, the
+ * lower of what the CPU produces and what the link carries once compressed.
+ * Run its main method with the test classpath; it needs no server.
+ */
+public class CompressionBenchmark {
+
+    private static final int PACKET_SIZE = 32 * 1024;
+    private static final int PACKETS = 2048;
+    private static final int[] LEVELS = {1, 3, 6, 9};
+    private static final long[] LINK_MBITS = {10, 100, 1000, 10000};
+
+    public static void main(String[] args) {
+        byte[][] kinds = {logs(), random()};
+        String[] names = {"logs", "compressed"};
+
+        System.out.printf("%-12s %-6s %8s %10s", "data", "level", "ratio", "cpu MB/s");
+        for (long link : LINK_MBITS) {
+            System.out.printf(" %12s", link + " Mbit/s");
+        }
+        System.out.println();
+
+        for (int k = 0; k < kinds.length; k++) {
+            System.out.printf("%-12s %-6s %8.2f %10s", names[k], "none", 1.0, "-");
+            for (long link : LINK_MBITS) {
+                System.out.printf(" %12.1f", link / 8.0);
+            }
+            System.out.println();
+
+            for (int level : LEVELS) {
+                run(names[k], kinds[k], String.valueOf(level), new ZlibCompression(), level);
+            }
+            run(names[k], kinds[k], "6 adapt", new ZlibCompression.Adaptive(), 6);
+        }
+        System.out.println("(payload MB/s per link; ratio = compressed / original)");
+    }
+
+    private static void run(String name, byte[] data, String label, Compression deflater, int level) {
+        deflater.init(Compression.DEFLATER, level);
+        // warm up
+        compress(deflater, data, PACKETS / 4);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long compressed = compress(deflater, data, PACKETS);
+        double seconds = (threads.getCurrentThreadCpuTime() - cpu) / 1e9;
+
+        double original = (double) PACKET_SIZE * PACKETS;
+        double ratio = compressed / original;
+        double cpuRate = original / seconds / 1e6;
+        System.out.printf("%-12s %-6s %8.2f %10.1f", name, label, ratio, cpuRate);
+        for (long link : LINK_MBITS) {
+            double linkRate = link / 8.0 / ratio;
+            System.out.printf(" %12.1f", Math.min(cpuRate, linkRate));
+        }
+        System.out.println();
+    }
+
+    private static long compress(Compression deflater, byte[] data, int packets) {
+        byte[] buf = new byte[PACKET_SIZE * 2];
+        long total = 0;
+        int[] len = new int[1];
+        for (int i = 0; i < packets; i++) {
+            int offset = (i * PACKET_SIZE) % (data.length - PACKET_SIZE);
+            System.arraycopy(data, offset, buf, 5, PACKET_SIZE);
+            len[0] = 5 + PACKET_SIZE;
+            buf = deflater.compress(buf, 5, len);
+            total += len[0] - 5;
+        }
+        return total;
+    }
+
+    private static byte[] logs() {
+        Random random = new Random(1);
+        String[] levels = {"INFO ", "DEBUG", "WARN "};
+        String[] paths = {"/api/users", "/api/orders", "/static/app.js", "/health"};
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 8 * 1024 * 1024) {
+            builder.append(String.format("2016-01-%02d %02d:%02d:%02d.%03d %s [worker-%d] GET %s %d %dms%n",
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+                    random.nextInt(1000), levels[random.nextInt(levels.length)], random.nextInt(32),
+                    paths[random.nextInt(paths.length)], random.nextBoolean() ? 200 : 404, random.nextInt(500)));
+        }
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] random() {
+        // stands for archives, images and other compressed data
+        byte[] data = new byte[8 * 1024 * 1024];
+        new Random(2).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class DirectorySyncTest {
+
+    private static final long MTIME = 1450000000L;
+
+    private final SortedMap<String, File> local = new TreeMap<>();
+    private final Map<String, SshFile> remote = new HashMap<>();
+    private final Set<String> failedDirs = new HashSet<>();
+
+    @Test
+    public void testUnchanged() {
+        local.put("a", localFile(10, MTIME));
+        remote.put("a", remoteFile("a", FileType.REGULAR, 10, MTIME));
+        DirectorySync.Plan plan = plan(new SyncOptions());
+        assertEquals(Arrays.asList("a"), plan.skipped);
+        assertTrue(plan.uploads.isEmpty());
+    }
+
+    @Test
+    public void testChangedSize() {
+        local.put("a", localFile(11, MTIME));
+        local.put("new", localFile(1, MTIME));
+        remote.put("a", remoteFile("a", FileType.REGULAR, 10, MTIME));
+        // the size alone decides, even when comparing digests
+        DirectorySync.Plan plan = plan(new SyncOptions().checksum(true));
+        assertEquals(Arrays.asList("a", "new"), plan.uploads);
+        assertTrue(plan.compared.isEmpty());
+    }
+
+    @Test
+    public void testModifiedTimeOnly() {
+        local.put("a", localFile(10, MTIME + 1));
+        remote.put("a", remoteFile("a", FileType.REGULAR, 10, MTIME));
+        assertEquals(Arrays.asList("a"), plan(new SyncOptions()).uploads);
+
+        DirectorySync.Plan plan = plan(new SyncOptions().checksum(true));
+        assertEquals(Arrays.asList("a"), plan.compared);
+        assertTrue(plan.uploads.isEmpty());
+    }
+
+    @Test
+    public void testWrongType() {
+        local.put("d", localDir());
+        local.put("d/f", localFile(1, MTIME));
+        local.put("f", localFile(1, MTIME));
+        remote.put("d", remoteFile("d", FileType.REGULAR, 1, MTIME));
+        remote.put("f", remoteFile("f", FileType.DIRECTORY, 0, MTIME));
+        remote.put("f/x", remoteFile("f/x", FileType.REGULAR, 1, MTIME));
+
+        // without deleting, nothing is in the way that can be replaced
+        DirectorySync.Plan plan = plan(new SyncOptions());
+        assertEquals(Collections.singleton("d"), failedDirs);
+        assertEquals(new HashSet<>(Arrays.asList("d", "f")), plan.failed.keySet());
+        assertTrue(plan.uploads.isEmpty());
+        assertTrue(plan.dirs.isEmpty());
+
+        failedDirs.clear();
+        plan = plan(new SyncOptions().delete(true));
+        // f/x goes with its directory
+        assertEquals(Arrays.asList("d", "f"), plan.deletes);
+        assertEquals(Arrays.asList("d"), plan.dirs);
+        assertEquals(Arrays.asList("d/f", "f"), plan.uploads);
+        assertTrue(plan.failed.isEmpty());
+    }
+
+    @Test
+    public void testFailedDir() {
+        local.put("ok", localFile(1, MTIME));
+        local.put("bad", localDir());
+        local.put("bad/f", localFile(1, MTIME));
+        local.put("bad/sub", localDir());
+        remote.put("bad", remoteFile("bad", FileType.DIRECTORY, 0, MTIME));
+        remote.put("bad/gone", remoteFile("bad/gone", FileType.REGULAR, 1, MTIME));
+        remote.put("gone", remoteFile("gone", FileType.REGULAR, 1, MTIME));
+        // e.g. the remote directory couldn't be read
+        failedDirs.add("bad");
+
+        DirectorySync.Plan plan = plan(new SyncOptions().delete(true));
+        assertEquals(Arrays.asList("gone"), plan.deletes);
+        assertTrue(plan.dirs.isEmpty());
+        assertEquals(Arrays.asList("ok"), plan.uploads);
+        assertTrue(plan.failed.isEmpty());
+    }
+
+    private DirectorySync.Plan plan(SyncOptions options) {
+        return DirectorySync.plan(local, remote, failedDirs, options);
+    }
+
+    private static File localFile(final long length, final long mtime) {
+        return new File("local") {
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public long lastModified() {
+                return mtime * 1000 + 999;
+            }
+        };
+    }
+
+    private static File localDir() {
+        return new File("local") {
+            @Override
+            public boolean isDirectory() {
+                return true;
+            }
+        };
+    }
+
+    private static SshFile remoteFile(String relative, FileType type, long length, long mtime) {
+        SshFile file = new SshFile();
+        file.setPath("/srv/" + relative);
+        file.setType(type);
+        file.setLength(length);
+        file.setModifiedTime(mtime);
+        return file;
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class FileTreeWalkerTest {
+
+    private final StubTree tree = new StubTree();
+    private SshClient client;
+
+    @Before
+    public void setUp() {
+        tree.dir("/r");
+        tree.dir("/r/a");
+        tree.file("/r/a/f1");
+        tree.dir("/r/b");
+        tree.file("/r/b/f2");
+        tree.file("/r/c");
+        tree.link("/r/l", "/r/a");
+        tree.link("/r/up", "/r");
+        client = SshClient.of("u", "h").authenticateWithPassword("p")
+                .sftpChannelFactory(new SftpChannelPool.ChannelFactory() {
+                    @Override
+                    public ChannelSftp open() {
+                        return tree;
+                    }
+                })
+                .newClient();
+    }
+
+    @Test
+    public void testContinue() {
+        Recorder visitor = new Recorder();
+        walk(visitor, SymlinkPolicy.REPORT);
+        // one directory read at a time, in the order they were found
+        assertEquals(Arrays.asList("pre /r", "pre /r/a", "pre /r/b", "file /r/c", "file /r/l", "file /r/up",
+                "file /r/a/f1", "file /r/b/f2"), visitor.calls);
+    }
+
+    @Test
+    public void testSkipSubtree() {
+        Recorder visitor = new Recorder();
+        visitor.results.put("pre /r/a", VisitResult.SKIP_SUBTREE);
+        walk(visitor, SymlinkPolicy.SKIP);
+        assertEquals(Arrays.asList("pre /r", "pre /r/a", "pre /r/b", "file /r/c", "file /r/b/f2"), visitor.calls);
+    }
+
+    @Test
+    public void testTerminate() {
+        Recorder visitor = new Recorder();
+        visitor.results.put("pre /r/b", VisitResult.TERMINATE);
+        walk(visitor, SymlinkPolicy.REPORT);
+        assertEquals(Arrays.asList("pre /r", "pre /r/a", "pre /r/b"), visitor.calls);
+    }
+
+    @Test
+    public void testFollow() {
+        tree.link("/r/b/gone", "/r/missing");
+        Recorder visitor = new Recorder();
+        walk(visitor, SymlinkPolicy.FOLLOW);
+        // the link to the root is not visited, /r/a is read once, through the first path queued
+        assertEquals(Arrays.asList("pre /r", "pre /r/a", "pre /r/b", "file /r/c", "pre /r/l",
+                "file /r/a/f1", "file /r/b/f2", "failed /r/b/gone"), visitor.calls);
+    }
+
+    @Test
+    public void testFollowReadsEveryDirectoryOnce() {
+        // a loop the links alone make, below the start directory
+        tree.dir("/r/b/x");
+        tree.link("/r/b/x/y", "/r/b");
+        Recorder visitor = new Recorder();
+        walk(visitor, SymlinkPolicy.FOLLOW);
+        assertEquals(1, Collections.frequency(visitor.calls, "file /r/b/f2"));
+        assertTrue(visitor.calls.contains("pre /r/b/x"));
+        assertFalse(visitor.calls.contains("pre /r/b/x/y"));
+    }
+
+    private void walk(Recorder visitor, SymlinkPolicy policy) {
+        client.walkFileTree("/r", visitor, new WalkOptions().concurrency(1).symlinkPolicy(policy));
+    }
+
+    private static class Recorder implements SshFileVisitor {
+        final List<String> calls = new ArrayList<>();
+        final Map<String, VisitResult> results = new HashMap<>();
+
+        @Override
+        public VisitResult preVisitDirectory(SshFile dir) {
+            return called("pre " + dir.getPath());
+        }
+
+        @Override
+        public VisitResult visitFile(SshFile file) {
+            return called("file " + file.getPath());
+        }
+
+        @Override
+        public VisitResult visitFileFailed(String path, SshException e) {
+            return called("failed " + path);
+        }
+
+        private VisitResult called(String call) {
+            calls.add(call);
+            VisitResult result = results.get(call);
+            return result == null ? VisitResult.CONTINUE : result;
+        }
+    }
+
+    /**
+     * An SFTP channel serving an in-memory tree, links by absolute target.
+     */
+    private static class StubTree extends ChannelSftp {
+        private final Map<String, Integer> types = new TreeMap<>();
+        private final Map<String, String> links = new HashMap<>();
+
+        void dir(String path) {
+            types.put(path, FileType.S_IFDIR);
+        }
+
+        void file(String path) {
+            types.put(path, FileType.S_IFREG);
+        }
+
+        void link(String path, String target) {
+            types.put(path, FileType.S_IFLNK);
+            links.put(path, target);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public String realpath(String path) throws SftpException {
+            String real = "";
+            for (String name : path.substring(1).split("/")) {
+                real = real + "/" + name;
+                if (!types.containsKey(real)) {
+                    throw new SftpException(SSH_FX_NO_SUCH_FILE, "No such file: " + path);
+                }
+                if (links.containsKey(real)) {
+                    real = realpath(links.get(real));
+                }
+            }
+            return real;
+        }
+
+        @Override
+        public SftpATTRS stat(String path) throws SftpException {
+            return attributes(types.get(realpath(path)));
+        }
+
+        @Override
+        public void ls(String path, LsEntrySelector selector) throws SftpException {
+            String dir = realpath(path);
+            List<LsEntry> entries = new ArrayList<>();
+            entries.add(entry(".", FileType.S_IFDIR));
+            entries.add(entry("..", FileType.S_IFDIR));
+            for (Map.Entry<String, Integer> e : types.entrySet()) {
+                String name = e.getKey().substring(e.getKey().lastIndexOf('/') + 1);
+                if (e.getKey().equals(dir + "/" + name)) {
+                    entries.add(entry(name, e.getValue()));
+                }
+            }
+            for (LsEntry entry : entries) {
+                if (selector.select(entry) == LsEntrySelector.BREAK) {
+                    break;
+                }
+            }
+        }
+
+        private LsEntry entry(String name, int type) {
+            try {
+                Constructor<LsEntry> constructor = LsEntry.class.getDeclaredConstructor(
+                        ChannelSftp.class, String.class, String.class, SftpATTRS.class);
+                constructor.setAccessible(true);
+                return constructor.newInstance(this, name, "-rw-r--r-- 1 u g 0 Jan 1 00:00 " + name,
+                        attributes(type));
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private static SftpATTRS attributes(int type) {
+            SftpATTRS attrs = SshClient.emptyAttributes();
+            try {
+                set(attrs, "flags", SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS);
+                set(attrs, "permissions", type | 0644);
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+            return attrs;
+        }
+
+        private static void set(SftpATTRS attrs, String field, int value) throws ReflectiveOperationException {
+            Field f = SftpATTRS.class.getDeclaredField(field);
+            f.setAccessible(true);
+            f.setInt(attrs, value);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FleetExecutorTest {
+
+    @Test
+    public void testHandlerStopKeepsStartedHosts() throws Exception {
+        StubConnector hosts = new StubConnector();
+        final FleetExecutor executor = FleetExecutor.builder()
+                .maxHosts(2)
+                .maxCommandsPerHost(1)
+                .connector(hosts)
+                .build();
+        try {
+            Future<FleetResult> run = start(executor, Arrays.asList(
+                    SshClient.of("u", "h1"), SshClient.of("u", "h2"), SshClient.of("u", "h3")),
+                    new HostResultHandler() {
+                        @Override
+                        public boolean handle(HostResult host) {
+                            return false;
+                        }
+                    });
+
+            Command first = hosts.next();
+            Command second = hosts.next();
+            first.complete();
+            // the first host is done now, the other one started before the handler stopped the run
+            hosts.next().complete();
+            second.complete();
+            hosts.next().complete();
+
+            FleetResult result = run.get(10, TimeUnit.SECONDS);
+            assertEquals(2, result.getHosts().size());
+            for (HostResult host : result.getHosts()) {
+                assertTrue(host.isSuccess());
+                assertEquals(2, host.getResults().size());
+            }
+            assertNull(hosts.commands.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(2, hosts.released.size());
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testCloseFailsRemainingHosts() throws Exception {
+        StubConnector hosts = new StubConnector();
+        FleetExecutor executor = FleetExecutor.builder()
+                .maxHosts(1)
+                .maxCommandsPerHost(1)
+                .connector(hosts)
+                .build();
+        Future<FleetResult> run = start(executor,
+                Arrays.asList(SshClient.of("u", "h1"), SshClient.of("u", "h2")), null);
+
+        Command first = hosts.next();
+        executor.close();
+        first.complete();
+
+        FleetResult result = run.get(10, TimeUnit.SECONDS);
+        assertEquals(2, result.getFailed());
+        HostResult h1 = result.getHosts().get(0);
+        assertEquals(1, h1.getResults().size());
+        assertNotNull(h1.getFailure());
+        assertEquals(Arrays.asList(true), hosts.released);
+    }
+
+    @Test
+    public void testCompletionsDontWaitForConnects() throws Exception {
+        StubConnector hosts = new StubConnector();
+        hosts.blocked = "u@h2:22";
+        FleetExecutor executor = FleetExecutor.builder()
+                .maxHosts(2)
+                .maxCommandsPerHost(1)
+                .connectThreads(1)
+                .connector(hosts)
+                .build();
+        try {
+            Future<FleetResult> run = start(executor,
+                    Arrays.asList(SshClient.of("u", "h1"), SshClient.of("u", "h2")), null);
+
+            Command first = hosts.next();
+            // the only connect thread is stuck on h2 now, h1 goes on regardless
+            first.complete();
+            Command second = hosts.next();
+            assertEquals("two", second.command);
+            second.complete();
+
+            hosts.unblock.countDown();
+            hosts.next().complete();
+            hosts.next().complete();
+            assertEquals(0, run.get(10, TimeUnit.SECONDS).getFailed());
+        } finally {
+            executor.close();
+        }
+    }
+
+    private static Future<FleetResult> start(final FleetExecutor executor, final List<SshClient.Builder> hosts,
+                                             final HostResultHandler handler) {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            return thread.submit(new Callable<FleetResult>() {
+                @Override
+                public FleetResult call() {
+                    return executor.execute(hosts, Arrays.asList("one", "two"), handler);
+                }
+            });
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    private static class Command {
+        final String host;
+        final String command;
+        final SettableFuture<ExecuteResult> future = SettableFuture.create();
+
+        Command(String host, String command) {
+            this.host = host;
+            this.command = command;
+        }
+
+        void complete() {
+            future.set(new ExecuteResult(host + ":" + command, "", 0));
+        }
+    }
+
+    /**
+     * Hosts whose commands complete when the test says so.
+     */
+    private static class StubConnector implements FleetExecutor.HostConnector {
+        final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+        final List<Boolean> released = new ArrayList<>();
+        final CountDownLatch unblock = new CountDownLatch(1);
+        // the endpoint whose connect waits for unblock
+        volatile String blocked;
+
+        @Override
+        public FleetExecutor.Host connect(final SshClient.Builder builder) throws InterruptedException {
+            if (builder.endpoint().equals(blocked)) {
+                unblock.await();
+            }
+            return new FleetExecutor.Host() {
+                @Override
+                public ListenableFuture<ExecuteResult> executeAsync(String command) {
+                    Command c = new Command(builder.endpoint(), command);
+                    commands.add(c);
+                    return c.future;
+                }
+
+                @Override
+                public void release(boolean failed) {
+                    synchronized (released) {
+                        released.add(failed);
+                    }
+                }
+            };
+        }
+
+        Command next() throws InterruptedException {
+            Command c = commands.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no command started", c);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IdentityCacheTest {
+
+    @Test
+    public void testParse() {
+        String output = "root:x:0:0:root:/root:/bin/bash\n"
+                + "daemon:x:1:1:daemon:/usr/sbin:/usr/sbin/nologin\n"
+                + "toor:x:0:0:duplicate:/root:/bin/sh\n"
+                + IdentityCache.SEPARATOR + "\n"
+                + "root:x:0:\n"
+                + "users:x:100:alice,bob\n";
+
+        Map<Integer, String> users = new HashMap<>();
+        Map<Integer, String> groups = new HashMap<>();
+        IdentityCache.parse(output, users, groups);
+
+        assertEquals(2, users.size());
+        assertEquals("root", users.get(0));
+        assertEquals("daemon", users.get(1));
+
+        assertEquals(2, groups.size());
+        assertEquals("root", groups.get(0));
+        assertEquals("users", groups.get(100));
+    }
+
+    @Test
+    public void testParseIgnoresGarbage() {
+        Map<Integer, String> users = new HashMap<>();
+        Map<Integer, String> groups = new HashMap<>();
+        IdentityCache.parse("\nnot an entry\nbad:x:abc:\n:x:5:5\n", users, groups);
+
+        assertTrue(users.isEmpty());
+        assertTrue(groups.isEmpty());
+    }
+
+    @Test
+    public void testParseName() {
+        assertEquals("alice", IdentityCache.parseName("alice:x:1000:1000::/home/alice:/bin/bash\n"));
+        assertEquals("staff", IdentityCache.parseName("staff:x:50:"));
+        assertNull(IdentityCache.parseName("\n"));
+    }
+
+    @Test
+    public void testParseId() {
+        assertEquals(1000, IdentityCache.parseId("alice:x:1000:1000::/home/alice:/bin/bash\n"));
+        assertEquals(50, IdentityCache.parseId("staff:x:50:"));
+    }
+
+    @Test(expected = SshException.class)
+    public void testParseIdMalformed() {
+        IdentityCache.parseId("staff:x\n");
+    }
+}
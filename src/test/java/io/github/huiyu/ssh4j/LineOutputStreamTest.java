@@ -0,0 +1,63 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineOutputStreamTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final LineHandler collector = new LineHandler() {
+        @Override
+        public void handle(CharSequence line) {
+            lines.add(line.toString());
+        }
+    };
+
+    @Test
+    public void testLines() {
+        LineOutputStream out = new LineOutputStream(collector, UTF_8);
+        byte[] data = "one\r\ntwo\n\nthree".getBytes(UTF_8);
+        out.write(data, 0, data.length);
+        assertEquals(Arrays.asList("one", "two", ""), lines);
+
+        out.close();
+        assertEquals(Arrays.asList("one", "two", "", "three"), lines);
+    }
+
+    @Test
+    public void testCharacterSplitBetweenWrites() {
+        LineOutputStream out = new LineOutputStream(collector, UTF_8);
+        byte[] data = "h\u00e9llo \u4e16\u754c\n".getBytes(UTF_8);
+        for (byte b : data) {
+            out.write(b);
+        }
+        out.close();
+        assertEquals(Arrays.asList("h\u00e9llo \u4e16\u754c"), lines);
+    }
+
+    @Test
+    public void testLongLineIsSplit() {
+        LineOutputStream out = new LineOutputStream(collector, UTF_8, 4);
+        byte[] data = "abcdefghij\nk\n".getBytes(UTF_8);
+        out.write(data, 0, data.length);
+        out.close();
+        assertEquals(Arrays.asList("abcd", "efgh", "ij", "k"), lines);
+    }
+
+    @Test
+    public void testMalformedInputIsReplaced() {
+        LineOutputStream out = new LineOutputStream(collector, UTF_8);
+        out.write(new byte[]{'a', (byte) 0xff, 'b', '\n'}, 0, 4);
+        out.close();
+        assertEquals(Arrays.asList("a\ufffdb"), lines);
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.base.Optional;
+import com.jcraft.jsch.SftpATTRS;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void testInvalidate() {
+        MetadataCache cache = new MetadataCache(60000, 100);
+        cache.putRealpath("/data", Optional.of("/data"));
+        cache.putRealpath("/data/a", Optional.of("/data/a"));
+        cache.putRealpath("/data/a/b", Optional.of("/data/a/b"));
+        cache.putRealpath("/data/ab", Optional.of("/data/ab"));
+        cache.putRealpath("link", Optional.of("/data/a"));
+        cache.putRealpath("/other", Optional.<String>absent());
+
+        cache.invalidate("/data/a/");
+
+        assertNull(cache.realpath("/data/a"));
+        assertNull(cache.realpath("/data/a/b"));
+        assertNull(cache.realpath("link"));
+        // the parent
+        assertNull(cache.realpath("/data"));
+        assertEquals("/data/ab", cache.realpath("/data/ab").get());
+        assertFalse(cache.realpath("/other").isPresent());
+    }
+
+    @Test
+    public void testInvalidateThroughResolvedPath() {
+        MetadataCache cache = new MetadataCache(60000, 100);
+        cache.putRealpath("docs", Optional.of("/home/u/docs"));
+        cache.putRealpath("/home/u/docs/x", Optional.of("/home/u/docs/x"));
+
+        cache.invalidate("docs");
+
+        assertNull(cache.realpath("docs"));
+        assertNull(cache.realpath("/home/u/docs/x"));
+    }
+
+    @Test
+    public void testInvalidateBelowUncachedDirectory() {
+        MetadataCache cache = new MetadataCache(60000, 100);
+        cache.putAttributes("/data/a/b/c", Optional.<SftpATTRS>absent());
+        cache.putRealpath("/data/x", Optional.of("/data/x"));
+
+        cache.invalidate("/data/a");
+
+        assertNull(cache.attributes("/data/a/b/c"));
+        assertEquals("/data/x", cache.realpath("/data/x").get());
+    }
+
+    @Test
+    public void testIndexFollowsEntries() {
+        MetadataCache cache = new MetadataCache(60000, 100);
+        cache.putRealpath("link", Optional.of("/data/a"));
+        cache.putRealpath("link", Optional.of("/data/b"));
+        // no longer resolved there
+        cache.invalidate("/data/a");
+        assertEquals("/data/b", cache.realpath("link").get());
+        cache.invalidate("/data/b");
+        assertNull(cache.realpath("link"));
+        assertEquals(0, cache.indexSize());
+
+        MetadataCache small = new MetadataCache(60000, 1);
+        small.putAttributes("/data/a/b", Optional.<SftpATTRS>absent());
+        small.putAttributes("/data/c", Optional.<SftpATTRS>absent());
+        // "/data/a/b" was evicted, "/", "/data" and "/data/c" are left
+        assertEquals(3, small.indexSize());
+    }
+
+    @Test
+    public void testStats() {
+        MetadataCache cache = new MetadataCache(60000, 100);
+        assertNull(cache.realpath("/a"));
+        cache.putRealpath("/a", Optional.of("/a"));
+        assertNotNull(cache.realpath("/a"));
+        cache.invalidate("/a");
+
+        MetadataCacheStats stats = cache.stats();
+        assertEquals(1, stats.getRealpathHits());
+        assertEquals(1, stats.getRealpathMisses());
+        assertEquals(1, stats.getInvalidations());
+        assertEquals(0.5, stats.getHitRate(), 0.001);
+        assertEquals(0, stats.getSize());
+    }
+}
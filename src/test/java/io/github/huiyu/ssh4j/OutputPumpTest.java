@@ -0,0 +1,89 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutputPumpTest {
+
+    @Test
+    public void testDrain() throws Exception {
+        final OutputPump pump = new OutputPump(64);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final OutputStream out = pump.stream(stdout);
+        final OutputStream err = pump.stream(stderr);
+        assertNull(pump.stream(null));
+
+        // stands for the transport thread, held up by the small capacity
+        Thread transport = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        out.write(("line " + i + "\n").getBytes());
+                        err.write('.');
+                    }
+                    pump.end();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        transport.start();
+        pump.drain();
+        transport.join();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append("line ").append(i).append('\n');
+        }
+        assertEquals(expected.toString(), stdout.toString());
+        assertEquals(100, stderr.size());
+    }
+
+    @Test
+    public void testFailingTarget() throws Exception {
+        final OutputPump pump = new OutputPump(16);
+        final OutputStream out = pump.stream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread transport = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        out.write(new byte[10]);
+                    }
+                    written.countDown();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        transport.start();
+        try {
+            pump.drain();
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        // the rest is dropped instead of waiting for a reader that is gone
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+    }
+}
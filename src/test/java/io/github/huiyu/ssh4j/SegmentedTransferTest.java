@@ -0,0 +1,36 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static io.github.huiyu.ssh4j.SegmentedTransfer.MIN_SEGMENT_SIZE;
+import static org.junit.Assert.*;
+
+public class SegmentedTransferTest {
+
+    @Test
+    public void testSegments() {
+        long size = 10 * MIN_SEGMENT_SIZE + 3;
+        List<long[]> segments = SegmentedTransfer.segments(size, 4);
+        assertEquals(4, segments.size());
+        long next = 0;
+        for (long[] segment : segments) {
+            assertEquals(next, segment[0]);
+            next += segment[1];
+        }
+        assertEquals(size, next);
+        assertEquals(segments.get(0)[1], segments.get(2)[1]);
+    }
+
+    @Test
+    public void testSmallFile() {
+        // never split below the minimum segment size
+        assertEquals(2, SegmentedTransfer.segments(MIN_SEGMENT_SIZE + 1, 8).size());
+        assertEquals(1, SegmentedTransfer.segments(100, 8).size());
+
+        List<long[]> empty = SegmentedTransfer.segments(0, 8);
+        assertEquals(1, empty.size());
+        assertEquals(0, empty.get(0)[1]);
+    }
+}
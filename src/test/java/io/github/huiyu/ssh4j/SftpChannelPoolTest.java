@@ -0,0 +1,159 @@
+package io.github.huiyu.ssh4j;
+
+import com.jcraft.jsch.ChannelSftp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SftpChannelPoolTest {
+
+    private final StubFactory channels = new StubFactory();
+
+    @Test
+    public void testRefusedOpenLowersLimit() throws Exception {
+        SftpChannelPool pool = new SftpChannelPool(channels, 4);
+        ChannelSftp first = pool.acquire();
+        ChannelSftp second = pool.acquire();
+        channels.refuse = true;
+
+        Future<ChannelSftp> third = acquireLater(pool);
+        awaitWaits(pool, 1);
+        assertEquals(2, pool.stats().getMaxChannels());
+
+        pool.release(second);
+        assertSame(second, third.get(10, TimeUnit.SECONDS));
+        assertEquals(2, pool.stats().getOpenChannels());
+        pool.release(first);
+    }
+
+    @Test
+    public void testWaitTimeKeptAcrossRefusedOpen() throws Exception {
+        SftpChannelPool pool = new SftpChannelPool(channels, 2);
+        StubChannel first = (StubChannel) pool.acquire();
+        ChannelSftp second = pool.acquire();
+
+        Future<ChannelSftp> third = acquireLater(pool);
+        awaitWaits(pool, 1);
+        Thread.sleep(50);
+        // a dropped channel frees a slot, but the server refuses to open another
+        channels.refuse = true;
+        first.disconnect();
+        pool.release(first);
+        Thread.sleep(50);
+        pool.release(second);
+        assertSame(second, third.get(10, TimeUnit.SECONDS));
+
+        ChannelPoolStats stats = pool.stats();
+        assertEquals(1, stats.getMaxChannels());
+        assertEquals(1, stats.getWaits());
+        assertTrue(stats.getWaitTimeNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        SftpChannelPool pool = new SftpChannelPool(channels, 4);
+        StubChannel first = (StubChannel) pool.acquire();
+        StubChannel second = (StubChannel) pool.acquire();
+        channels.refuse = true;
+        Future<ChannelSftp> third = acquireLater(pool);
+        awaitWaits(pool, 1);
+        pool.release(first);
+        assertSame(first, third.get(10, TimeUnit.SECONDS));
+        pool.release(first);
+
+        // the session was replaced while the second channel was busy
+        pool.clear();
+        assertFalse(first.isConnected());
+        assertEquals(4, pool.stats().getMaxChannels());
+        second.disconnect();
+        pool.release(second);
+        assertEquals(0, pool.stats().getOpenChannels());
+
+        channels.refuse = false;
+        ChannelSftp fresh = pool.acquire();
+        assertNotSame(first, fresh);
+        assertNotSame(second, fresh);
+        assertEquals(1, pool.stats().getOpenChannels());
+    }
+
+    @Test
+    public void testReleaseOnStreamClose() throws Exception {
+        SftpChannelPool pool = new SftpChannelPool(channels, 1);
+        ChannelSftp ch = pool.acquire();
+        InputStream in = pool.releaseOnClose(ch, new ByteArrayInputStream(new byte[]{1}));
+        assertEquals(1, in.read());
+        assertEquals(1, pool.stats().getBusyChannels());
+        in.close();
+        in.close();
+        assertEquals(0, pool.stats().getBusyChannels());
+
+        assertSame(ch, pool.acquire());
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = pool.releaseOnClose(ch, target);
+        out.write(new byte[]{1, 2}, 0, 2);
+        out.close();
+        out.close();
+        assertEquals(2, target.size());
+        assertEquals(0, pool.stats().getBusyChannels());
+        assertEquals(2, pool.stats().getAcquisitions());
+    }
+
+    private static Future<ChannelSftp> acquireLater(final SftpChannelPool pool) {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            return thread.submit(new Callable<ChannelSftp>() {
+                @Override
+                public ChannelSftp call() {
+                    return pool.acquire();
+                }
+            });
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    private static void awaitWaits(SftpChannelPool pool, long waits) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.stats().getWaits() < waits) {
+            assertTrue("no caller waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static class StubFactory implements SftpChannelPool.ChannelFactory {
+        volatile boolean refuse;
+
+        @Override
+        public ChannelSftp open() {
+            if (refuse) {
+                throw new SshException("channel is not opened.");
+            }
+            return new StubChannel();
+        }
+    }
+
+    private static class StubChannel extends ChannelSftp {
+        volatile boolean connected = true;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+    }
+}
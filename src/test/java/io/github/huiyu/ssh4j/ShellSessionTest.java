@@ -0,0 +1,91 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShellSessionTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TOKEN = "--ssh4j-0123--";
+
+    @Test
+    public void testMarkerSplitAtEveryOffset() {
+        // output with and without a trailing newline, and one that looks like a marker for a while
+        String stream = "one\n" + stdoutMarker(0) + "two" + stdoutMarker(12) + "\n--ssh4j-01x\n" + stdoutMarker(1);
+        List<String> expected = Arrays.asList("one\n:0", "two:12", "\n--ssh4j-01x\n:1");
+        byte[] bytes = stream.getBytes(UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            Recorder recorder = new Recorder(true);
+            recorder.write(bytes, 0, split);
+            recorder.write(bytes, split, bytes.length - split);
+            assertEquals("split at " + split, expected, recorder.frames);
+        }
+
+        Recorder recorder = new Recorder(true);
+        for (byte b : bytes) {
+            recorder.write(b);
+        }
+        assertEquals(expected, recorder.frames);
+    }
+
+    @Test
+    public void testBackToBackFrames() {
+        Recorder recorder = new Recorder(true);
+        byte[] bytes = (stdoutMarker(0) + stdoutMarker(127) + "last\n\n" + stdoutMarker(2) + "next").getBytes(UTF_8);
+        recorder.write(bytes, 0, bytes.length);
+        assertEquals(Arrays.asList(":0", ":127", "last\n\n:2"), recorder.frames);
+        // the next frame's data is passed on as it comes
+        assertEquals("next", recorder.current.toString());
+    }
+
+    @Test
+    public void testErrorStream() {
+        String stream = "warning" + stderrMarker() + stderrMarker() + "e\n" + stderrMarker();
+        byte[] bytes = stream.getBytes(UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            Recorder recorder = new Recorder(false);
+            recorder.write(bytes, 0, split);
+            recorder.write(bytes, split, bytes.length - split);
+            assertEquals("split at " + split, Arrays.asList("warning:-1", ":-1", "e\n:-1"), recorder.frames);
+        }
+    }
+
+    private static String stdoutMarker(int exitCode) {
+        return "\n" + TOKEN + " " + exitCode + "\n";
+    }
+
+    private static String stderrMarker() {
+        return "\n" + TOKEN + "\n";
+    }
+
+    /**
+     * Frames as their data followed by ':' and the exit code.
+     */
+    private static class Recorder extends ShellSession.FrameParser {
+        final List<String> frames = new ArrayList<>();
+        final ByteArrayOutputStream current = new ByteArrayOutputStream();
+
+        Recorder(boolean withExitCode) {
+            super(("\n" + TOKEN + (withExitCode ? " " : "\n")).getBytes(UTF_8), withExitCode);
+        }
+
+        @Override
+        void data(byte[] b, int off, int len) {
+            assertTrue(len > 0);
+            current.write(b, off, len);
+        }
+
+        @Override
+        void endFrame(int exitCode) {
+            frames.add(new String(current.toByteArray(), UTF_8) + ":" + exitCode);
+            current.reset();
+        }
+    }
+}
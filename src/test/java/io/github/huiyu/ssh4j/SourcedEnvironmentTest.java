@@ -0,0 +1,74 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SourcedEnvironmentTest {
+
+    @Test
+    public void testParse() {
+        Map<String, String> env = SourcedEnvironment.parse("HOME=/root\0MULTI=a\nb=c\0EMPTY=\0garbage\0");
+        assertEquals(3, env.size());
+        assertEquals("/root", env.get("HOME"));
+        assertEquals("a\nb=c", env.get("MULTI"));
+        assertEquals("", env.get("EMPTY"));
+    }
+
+    @Test
+    public void testReplay() {
+        Map<String, String> before = SourcedEnvironment.parse("HOME=/root\0PATH=/bin\0OLD=x\0SHLVL=1\0");
+        Map<String, String> after = SourcedEnvironment.parse(
+                "HOME=/root\0PATH=/opt/bin:/bin\0NEW=it's\0SHLVL=2\0BASH_FUNC_f%%=() { :; }\0");
+        String replay = SourcedEnvironment.replay(before, after);
+        assertEquals("export PATH='/opt/bin:/bin' \n "
+                + "export NEW='it'\\''s' \n "
+                + "unset OLD \n ", replay);
+    }
+
+    @Test
+    public void testParseSections() {
+        String sep = SourcedEnvironment.SEPARATOR;
+        List<Map<String, String>> sections = SourcedEnvironment.parseSections(
+                "A=1\0" + sep + "\0" + sep + "\0B=2\0C=3\0" + sep + "\0");
+        assertEquals(4, sections.size());
+        assertEquals("1", sections.get(0).get("A"));
+        // no shell variables where compgen is missing
+        assertTrue(sections.get(1).isEmpty());
+        assertEquals(2, sections.get(2).size());
+        assertTrue(sections.get(3).isEmpty());
+    }
+
+    @Test
+    public void testReplayShell() {
+        Map<String, String> before = SourcedEnvironment.parse("PATH=/bin\0GONE=x\0SECONDS=1\0");
+        Map<String, String> after = SourcedEnvironment.parse(
+                "PATH=/opt/bin:/bin\0LOCAL=a b\0SECONDS=2\0__ssh4j_name=LOCAL\0");
+        Map<String, String> env = SourcedEnvironment.parse("PATH=/opt/bin:/bin\0");
+        // PATH is exported, replay() takes care of it
+        assertEquals("LOCAL='a b' \n unset GONE \n ", SourcedEnvironment.replayShell(before, after, env));
+    }
+
+    @Test
+    public void testReplayFunctions() {
+        String greet = "greet () \n{ \n    echo \"hi=$1\"\n}";
+        Map<String, String> before = SourcedEnvironment.parse("old=old () \n{ \n    :\n}\0same=same () \n{ \n    :\n}\0");
+        Map<String, String> after = SourcedEnvironment.parse("same=same () \n{ \n    :\n}\0greet=" + greet + "\0");
+        assertEquals(greet + " \n unset -f old \n ", SourcedEnvironment.replayFunctions(before, after));
+
+        // without compgen the functions only show all at once
+        Map<String, String> none = SourcedEnvironment.parse("*=\0");
+        assertEquals("", SourcedEnvironment.replayFunctions(none, none));
+        assertNull(SourcedEnvironment.replayFunctions(none, SourcedEnvironment.parse("*=" + greet + "\0")));
+    }
+
+    @Test
+    public void testSourceCommands() {
+        assertEquals("source /etc/profile \n source ~/.env \n ",
+                SourcedEnvironment.sourceCommands(Arrays.asList("/etc/profile", "~/.env")));
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SshClientPoolTest {
+
+    private final StubFactory clients = new StubFactory();
+    private SshClientPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testBorrowAndRelease() {
+        pool = newPool().maxSessions(2).build();
+        SshClient first = pool.borrow(host("a"));
+        assertEquals(1, pool.getActiveCount("u", "h", 22));
+
+        pool.release(first);
+        assertEquals(0, pool.getActiveCount("u", "h", 22));
+        assertEquals(1, pool.getIdleCount("u", "h", 22));
+        // an equally set up builder shares the endpoint's sessions
+        assertSame(first, pool.borrow(host("a")));
+        assertNotSame(first, pool.borrow(host("a")));
+
+        assertEquals(3, pool.getStats().getBorrows());
+        assertEquals(2, pool.getStats().getCreations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherSettings() {
+        pool = newPool().build();
+        pool.release(pool.borrow(host("a")));
+        pool.borrow(host("b"));
+    }
+
+    @Test
+    public void testExhausted() {
+        pool = newPool().maxSessions(1).maxWait(10, TimeUnit.MILLISECONDS).build();
+        pool.borrow(host("a"));
+        try {
+            pool.borrow(host("a"));
+            fail();
+        } catch (SshException e) {
+            assertEquals(1, pool.getStats().getTimeouts());
+        }
+    }
+
+    @Test
+    public void testEvict() throws InterruptedException {
+        pool = newPool().maxIdleTime(200, TimeUnit.MILLISECONDS).build();
+        SshClient idle = pool.borrow(host("a"));
+        SshClient dead = pool.borrow(host("a"));
+        pool.release(idle);
+        pool.release(dead);
+        clients.open.remove(dead);
+        pool.maintain();
+        assertEquals(1, pool.getIdleCount("u", "h", 22));
+        assertEquals(1, pool.getStats().getEvictions());
+
+        Thread.sleep(250);
+        pool.maintain();
+        assertEquals(0, pool.getIdleCount("u", "h", 22));
+        assertEquals(2, pool.getStats().getEvictions());
+        assertTrue(clients.open.isEmpty());
+    }
+
+    @Test
+    public void testValidate() throws InterruptedException {
+        pool = newPool().validateAfter(1, TimeUnit.MILLISECONDS).build();
+        SshClient stale = pool.borrow(host("a"));
+        pool.release(stale);
+        Thread.sleep(5);
+
+        clients.answering = false;
+        SshClient fresh = pool.borrow(host("a"));
+        assertNotSame(stale, fresh);
+        assertFalse(clients.open.contains(stale));
+        assertEquals(1, pool.getStats().getEvictions());
+
+        clients.answering = true;
+        pool.release(fresh);
+        Thread.sleep(5);
+        assertSame(fresh, pool.borrow(host("a")));
+    }
+
+    @Test
+    public void testInvalidate() {
+        pool = newPool().build();
+        SshClient client = pool.borrow(host("a"));
+        pool.invalidate(client);
+        assertFalse(clients.open.contains(client));
+        assertEquals(0, pool.getIdleCount("u", "h", 22));
+        assertEquals(0, pool.getActiveCount("u", "h", 22));
+    }
+
+    private SshClientPool.Builder newPool() {
+        return SshClientPool.builder()
+                .evictionInterval(1, TimeUnit.HOURS)
+                .factory(clients);
+    }
+
+    private static SshClient.Builder host(String password) {
+        return SshClient.of("u", "h").authenticateWithPassword(password);
+    }
+
+    /**
+     * Clients that are never connected, open until the pool closes them.
+     */
+    private static class StubFactory implements SshClientPool.ClientFactory {
+        final Set<SshClient> open = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<SshClient, Boolean>()));
+        volatile boolean answering = true;
+
+        @Override
+        public SshClient create(SshClient.Builder builder) {
+            SshClient client = builder.newClient();
+            open.add(client);
+            return client;
+        }
+
+        @Override
+        public boolean isOpen(SshClient client) {
+            return open.contains(client);
+        }
+
+        @Override
+        public boolean validate(SshClient client) {
+            return answering;
+        }
+
+        @Override
+        public void close(SshClient client) {
+            open.remove(client);
+        }
+    }
+}
@@ -1,7 +1,28 @@
 package io.github.huiyu.ssh4j;
 
+import com.jcraft.jsch.SftpATTRS;
+
+import org.junit.Test;
+
 import static org.junit.Assert.*;
 
 public class SshClientTest {
 
-}
\ No newline at end of file
+    @Test
+    public void testEmptyAttributes() {
+        SftpATTRS attrs = SshClient.emptyAttributes();
+        assertNotNull(attrs);
+        assertEquals(0, attrs.getFlags());
+        attrs.setUIDGID(1000, 100);
+        // only the ids go out with a setstat
+        assertEquals(SftpATTRS.SSH_FILEXFER_ATTR_UIDGID, attrs.getFlags());
+    }
+
+    @Test
+    public void testEscapeGlob() {
+        assertEquals("/srv/plain", SshClient.escapeGlob("/srv/plain"));
+        // a tree entry named like a pattern must not match its siblings
+        assertEquals("/srv/a\\*/x\\?", SshClient.escapeGlob("/srv/a*/x?"));
+        assertEquals("/srv/b\\\\c", SshClient.escapeGlob("/srv/b\\c"));
+    }
+}
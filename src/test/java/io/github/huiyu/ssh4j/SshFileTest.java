@@ -0,0 +1,31 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class SshFileTest {
+
+    @Test
+    public void testTimes() {
+        SshFile file = new SshFile();
+        assertNull(file.getLastModifiedTime());
+        assertNull(file.getLastAccessTime());
+
+        file.setModifiedTime(1450000000L);
+        assertEquals(new Date(1450000000000L), file.getLastModifiedTime());
+        file.setLastModifiedTime(null);
+        assertNull(file.getLastModifiedTime());
+        assertEquals(0, file.getModifiedTime());
+
+        file.setLastAccessTime(new Date(1450000000999L));
+        assertEquals(1450000000L, file.getAccessTime());
+        file.setLastAccessTime(null);
+        assertNull(file.getLastAccessTime());
+        // the epoch is a time like any other
+        file.setAccessTime(0);
+        assertEquals(new Date(0), file.getLastAccessTime());
+    }
+}
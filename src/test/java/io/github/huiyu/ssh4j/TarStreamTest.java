@@ -0,0 +1,87 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TarStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String prefixed = Strings.repeat("d", 120) + "/" + Strings.repeat("f", 90);
+        String longName = Strings.repeat("x", 200) + "/" + Strings.repeat("y", 150);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarOutputStream tar = new TarOutputStream(archive)) {
+            tar.putDirectory("dir", 0750, 1450000000000L);
+            assertTrue(tar.putFile("dir/data", 0640, 1450000001000L, data.length, new ByteArrayInputStream(data)));
+            assertTrue(tar.putFile("dir/empty", 0755, 0, 0, new ByteArrayInputStream(new byte[0])));
+            assertTrue(tar.putFile(prefixed, 0644, 0, 1, new ByteArrayInputStream(new byte[1])));
+            assertTrue(tar.putFile(longName, 0644, 0, 1, new ByteArrayInputStream(new byte[1])));
+        }
+        assertEquals(0, archive.size() % TarOutputStream.BLOCK_SIZE);
+
+        TarInputStream tar = new TarInputStream(new ByteArrayInputStream(archive.toByteArray()));
+        TarInputStream.Entry entry = tar.getNextEntry();
+        assertEquals("dir", entry.getName());
+        assertTrue(entry.isDirectory());
+        assertEquals(0750, entry.getMode());
+        assertEquals(1450000000000L, entry.getModifiedTime());
+
+        entry = tar.getNextEntry();
+        assertEquals("dir/data", entry.getName());
+        assertTrue(entry.isFile());
+        assertEquals(0640, entry.getMode());
+        assertEquals(1450000001000L, entry.getModifiedTime());
+        assertArrayEquals(data, ByteStreams.toByteArray(tar));
+
+        entry = tar.getNextEntry();
+        assertEquals("dir/empty", entry.getName());
+        assertEquals(0, entry.getSize());
+
+        // the data of these isn't read, the next entry skips it
+        assertEquals(prefixed, tar.getNextEntry().getName());
+        assertEquals(longName, tar.getNextEntry().getName());
+        assertNull(tar.getNextEntry());
+    }
+
+    @Test
+    public void testChangedSource() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarOutputStream tar = new TarOutputStream(archive)) {
+            // shrunk: padded to the size in the header
+            assertFalse(tar.putFile("short", 0644, 0, 10, new ByteArrayInputStream(new byte[]{1, 2, 3})));
+            // grown: cut
+            assertFalse(tar.putFile("long", 0644, 0, 2, new ByteArrayInputStream(new byte[]{4, 5, 6})));
+        }
+
+        TarInputStream tar = new TarInputStream(new ByteArrayInputStream(archive.toByteArray()));
+        assertEquals("short", tar.getNextEntry().getName());
+        assertArrayEquals(new byte[]{1, 2, 3, 0, 0, 0, 0, 0, 0, 0}, ByteStreams.toByteArray(tar));
+        assertEquals("long", tar.getNextEntry().getName());
+        assertArrayEquals(new byte[]{4, 5}, ByteStreams.toByteArray(tar));
+        assertNull(tar.getNextEntry());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptHeader() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarOutputStream tar = new TarOutputStream(archive)) {
+            tar.putFile("file", 0644, 0, 0, new ByteArrayInputStream(new byte[0]));
+        }
+        byte[] bytes = archive.toByteArray();
+        bytes[0] = 'g';
+        new TarInputStream(new ByteArrayInputStream(bytes)).getNextEntry();
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TaskGroupTest {
+
+    private TaskGroup group;
+
+    @After
+    public void tearDown() {
+        if (group != null) {
+            group.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullQueueRunsInCaller() throws InterruptedException {
+        group = new TaskGroup("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        group.submit(block(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final AtomicReference<Thread> queued = new AtomicReference<>();
+        final AtomicReference<Thread> overflow = new AtomicReference<>();
+        group.submit(recordThread(queued));
+        // the worker is busy and the queue full
+        group.submit(recordThread(overflow));
+        assertSame(Thread.currentThread(), overflow.get());
+        assertNull(queued.get());
+
+        release.countDown();
+        group.await();
+        assertNotSame(Thread.currentThread(), queued.get());
+    }
+
+    @Test
+    public void testAwaitNestedTasks() {
+        group = new TaskGroup("test", 3, 2);
+        final AtomicInteger done = new AtomicInteger();
+        group.submit(new Runnable() {
+            @Override
+            public void run() {
+                tree(3, done);
+            }
+        });
+        group.await();
+        // 1 + 2 + 4 + 8 tasks, some run by their submitters
+        assertEquals(15, done.get());
+    }
+
+    @Test
+    public void testFirstFailure() {
+        group = new TaskGroup("test", 1, 8);
+        final AtomicInteger ran = new AtomicInteger();
+        group.submit(failing("first"));
+        group.submit(failing("second"));
+        group.submit(count(ran));
+        try {
+            group.await();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("first", e.getMessage());
+        }
+        // the failure cancelled what was left
+        assertTrue(group.isCancelled());
+        assertEquals(0, ran.get());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        group = new TaskGroup("test", 1, 8);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        group.submit(block(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        group.submit(count(ran));
+
+        group.cancel();
+        group.submit(count(ran));
+        release.countDown();
+        group.await();
+        assertEquals(0, ran.get());
+    }
+
+    private void tree(final int depth, final AtomicInteger done) {
+        done.incrementAndGet();
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < 2; i++) {
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    tree(depth - 1, done);
+                }
+            });
+        }
+    }
+
+    private static Runnable block(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable recordThread(final AtomicReference<Thread> thread) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        };
+    }
+
+    private static Runnable count(final AtomicInteger ran) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+    }
+
+    private static Runnable failing(final String message) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException(message);
+            }
+        };
+    }
+}
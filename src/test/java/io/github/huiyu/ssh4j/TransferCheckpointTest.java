@@ -0,0 +1,58 @@
+package io.github.huiyu.ssh4j;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.github.huiyu.ssh4j.TransferCheckpoint.Direction;
+
+import static org.junit.Assert.*;
+
+public class TransferCheckpointTest {
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        File file = File.createTempFile("checkpoint", ".properties");
+        try {
+            TransferCheckpoint saved = new TransferCheckpoint(Direction.UPLOAD, "/tmp/a b", "~/a=b", 100, 42, 0)
+                    .withOffset(64);
+            saved.save(file);
+
+            TransferCheckpoint loaded = TransferCheckpoint.load(file);
+            assertNotNull(loaded);
+            assertTrue(saved.sameTransfer(loaded));
+            assertEquals(Direction.UPLOAD, loaded.getDirection());
+            assertEquals("/tmp/a b", loaded.getSource());
+            assertEquals("~/a=b", loaded.getDestination());
+            assertEquals(64, loaded.getOffset());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChangedSource() {
+        TransferCheckpoint a = new TransferCheckpoint(Direction.DOWNLOAD, "/a", "/b", 100, 42, 10);
+        assertTrue(a.sameTransfer(new TransferCheckpoint(Direction.DOWNLOAD, "/a", "/b", 100, 42, 90)));
+        assertFalse(a.sameTransfer(new TransferCheckpoint(Direction.DOWNLOAD, "/a", "/b", 101, 42, 10)));
+        assertFalse(a.sameTransfer(new TransferCheckpoint(Direction.DOWNLOAD, "/a", "/b", 100, 43, 10)));
+        assertFalse(a.sameTransfer(null));
+    }
+
+    @Test
+    public void testIncompleteFile() throws IOException {
+        File file = File.createTempFile("checkpoint", ".properties");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write("direction=UPLOAD\nsource=/a\n".getBytes("UTF-8"));
+            }
+            assertNull(TransferCheckpoint.load(file));
+            assertTrue(file.delete());
+            assertNull(TransferCheckpoint.load(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
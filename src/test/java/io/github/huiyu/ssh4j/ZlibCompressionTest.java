@@ -0,0 +1,118 @@
+package io.github.huiyu.ssh4j;
+
+import com.google.common.io.ByteStreams;
+
+import com.jcraft.jsch.Compression;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ZlibCompressionTest {
+
+    // JSch compresses packets after a 5 byte header
+    private static final int HEADER = 5;
+
+    @Test
+    public void testRoundTrip() {
+        Compression deflater = newCompression(new ZlibCompression(), Compression.DEFLATER, 6);
+        Compression inflater = newCompression(new ZlibCompression(), Compression.INFLATER, 0);
+        byte[][] packets = {text(100), text(40000), random(30000), text(1)};
+        for (byte[] packet : packets) {
+            assertArrayEquals(packet, inflate(inflater, deflate(deflater, packet)));
+        }
+    }
+
+    @Test
+    public void testStandardStream() throws IOException {
+        // packets concatenated form one zlib stream, as any zlib inflates it
+        Compression deflater = newCompression(new ZlibCompression.Adaptive(), Compression.DEFLATER, 9);
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            byte[] packet = i % 2 == 0 ? text(32768) : random(32768);
+            original.write(packet);
+            compressed.write(deflate(deflater, packet));
+        }
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        byte[] inflated = new byte[original.size()];
+        ByteStreams.readFully(in, inflated);
+        assertArrayEquals(original.toByteArray(), inflated);
+    }
+
+    @Test
+    public void testAdaptive() {
+        ZlibCompression.Adaptive deflater = new ZlibCompression.Adaptive();
+        deflater.init(Compression.DEFLATER, 6);
+        Compression inflater = newCompression(new ZlibCompression(), Compression.INFLATER, 0);
+
+        // text keeps being compressed
+        for (int i = 0; i < 16; i++) {
+            byte[] packet = text(32768);
+            assertArrayEquals(packet, inflate(inflater, deflate(deflater, packet)));
+        }
+        assertEquals(6, deflater.getLevel());
+
+        // incompressible data is stored after one sample
+        int packets = ZlibCompression.Adaptive.SAMPLE_BYTES / 32768;
+        for (int i = 0; i < packets; i++) {
+            byte[] packet = random(32768);
+            assertArrayEquals(packet, inflate(inflater, deflate(deflater, packet)));
+        }
+        assertEquals(Deflater.NO_COMPRESSION, deflater.getLevel());
+
+        // and compressed again once the skip is over and the data compresses
+        long skip = ZlibCompression.Adaptive.SKIP_BYTES / 32768;
+        for (int i = 0; i <= skip; i++) {
+            byte[] packet = text(32768);
+            assertArrayEquals(packet, inflate(inflater, deflate(deflater, packet)));
+        }
+        assertEquals(6, deflater.getLevel());
+    }
+
+    private static Compression newCompression(Compression c, int type, int level) {
+        c.init(type, level);
+        return c;
+    }
+
+    private static byte[] deflate(Compression deflater, byte[] data) {
+        byte[] buf = new byte[HEADER + data.length + 64];
+        System.arraycopy(data, 0, buf, HEADER, data.length);
+        int[] len = {HEADER + data.length};
+        buf = deflater.compress(buf, HEADER, len);
+        return Arrays.copyOfRange(buf, HEADER, len[0]);
+    }
+
+    private static byte[] inflate(Compression inflater, byte[] data) {
+        byte[] buf = new byte[HEADER + data.length];
+        System.arraycopy(data, 0, buf, HEADER, data.length);
+        int[] len = {data.length};
+        buf = inflater.uncompress(buf, HEADER, len);
+        assertNotNull(buf);
+        return Arrays.copyOfRange(buf, HEADER, HEADER + len[0]);
+    }
+
+    private static byte[] text(int length) {
+        byte[] line = "2016-01-01 12:00:00 INFO  request served in 12 ms\n".getBytes();
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = line[i % line.length];
+        }
+        return data;
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}